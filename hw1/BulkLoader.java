@@ -0,0 +1,327 @@
+package hw1;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Appends large numbers of tuples to a HeapFile. Instead of searching for free
+ * space and writing one page per tuple, the loader fills new pages one after
+ * another at the end of the file and writes them in large batches straight
+ * through the file's PageStore, bypassing the BufferPool and its locks.
+ *
+ * This is meant for tables that are being created or reloaded: nothing else
+ * may add pages to the file until finish() has been called, and the loaded
+ * tuples only become visible through the HeapFile at that point. A load that
+ * fails is undone with abort(), which cuts the pages written so far off the
+ * end of the file.
+ */
+public class BulkLoader {
+
+	// pages encoded before they are written out together
+	private static final int BATCH_PAGES = PageStore.REGION_PAGES;
+	// CSV lines handed to a parsing thread at a time
+	private static final int CHUNK_LINES = 4096;
+
+	private HeapFile hf;
+	private int firstPid;
+	private int nextPid;
+	private HeapPage page;
+	private ByteBuffer batch;
+	private int[] batchPids;
+	private int batched;
+	private int numTuples;
+
+	/**
+	 * Creates a loader that appends to the given file
+	 *
+	 * @param hf
+	 *            the file to load into
+	 */
+	public BulkLoader(HeapFile hf) {
+		this.hf = hf;
+		this.firstPid = hf.getNumPages();
+		this.nextPid = firstPid;
+		this.batch = ByteBuffer.allocateDirect(BATCH_PAGES * HeapFile.PAGE_SIZE);
+		this.batchPids = new int[BATCH_PAGES];
+	}
+
+	/**
+	 * Adds a tuple to the page being filled, starting a new page when it is
+	 * full
+	 *
+	 * @param t
+	 *            the tuple to add
+	 * @throws Exception
+	 */
+	public void add(Tuple t) throws Exception {
+		if (page != null && !page.hasRoomFor(t)) {
+			finishPage();
+		}
+		if (page == null) {
+			page = hf.newPage(nextPid++, new byte[HeapFile.PAGE_SIZE]);
+		}
+		page.addTuple(t);
+		numTuples++;
+	}
+
+	private void finishPage() throws IOException {
+		batchPids[batched++] = page.getId();
+		page.writeTo(batch);
+		page = null;
+		if (batched == BATCH_PAGES) {
+			writeBatch();
+		}
+	}
+
+	private void writeBatch() throws IOException {
+		ByteBuffer[] images = new ByteBuffer[batched];
+		for (int i = 0; i < batched; i++) {
+			images[i] = batch.duplicate();
+			images[i].position(i * HeapFile.PAGE_SIZE);
+		}
+		hf.saveDictionaries();
+		hf.getStore().writePages(Arrays.copyOf(batchPids, batched), images);
+		batch.clear();
+		batched = 0;
+	}
+
+	/**
+	 * Writes out the last page, forces the new pages to disk and adds them to
+	 * the HeapFile. The loader must not be used afterwards.
+	 *
+	 * @return the number of tuples loaded
+	 * @throws IOException
+	 */
+	public int finish() throws IOException {
+		boolean lastHasRoom = page != null && page.hasEmptySlot();
+		if (page != null) {
+			finishPage();
+		}
+		if (batched > 0) {
+			writeBatch();
+		}
+		hf.addLoadedPages(firstPid, nextPid - firstPid, lastHasRoom);
+		return numTuples;
+	}
+
+	/**
+	 * Gives up the load: the pages already written are dropped, leaving the
+	 * file as it was when the loader was created. The loader must not be used
+	 * afterwards.
+	 *
+	 * @throws IOException
+	 */
+	public void abort() throws IOException {
+		page = null;
+		batch.clear();
+		batched = 0;
+		hf.discardLoadedPages(firstPid);
+	}
+
+	/**
+	 * Parses one CSV line into a tuple (see splitCsvLine).
+	 *
+	 * @param td
+	 *            the schema of the tuple
+	 * @param line
+	 *            the line to parse
+	 * @return the tuple
+	 * @throws IllegalArgumentException
+	 *             if the line does not have one value per field, an INT field
+	 *             is not a number, or a quoted value is malformed
+	 */
+	public static Tuple parseCsvLine(TupleDesc td, String line) {
+		List<String> values = splitCsvLine(line);
+		if (values.size() != td.numFields()) {
+			throw new IllegalArgumentException(
+					"Expected " + td.numFields() + " fields but found " + values.size() + " in CSV line: " + line);
+		}
+		Tuple t = new Tuple(td);
+		for (int i = 0; i < values.size(); i++) {
+			String value = values.get(i);
+			if (td.getType(i) == Type.INT) {
+				try {
+					t.setField(i, new IntField(Integer.parseInt(value)));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Field " + (i + 1) + " is not an INT: \"" + value + "\"", e);
+				}
+			} else {
+				t.setField(i, new StringField(value));
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Splits a CSV line into its values. Values are separated by commas and
+	 * surrounding whitespace is ignored. A value wrapped in double quotes may
+	 * hold commas and keeps its inner whitespace; a doubled quote inside it
+	 * stands for one quote.
+	 *
+	 * @param line
+	 *            the line to split
+	 * @return the values, without their quotes
+	 * @throws IllegalArgumentException
+	 *             if a quoted value is not closed, or is followed by anything
+	 *             other than whitespace before the next comma
+	 */
+	public static List<String> splitCsvLine(String line) {
+		List<String> values = new ArrayList<String>();
+		int n = line.length();
+		int i = 0;
+		while (true) {
+			while (i < n && Character.isWhitespace(line.charAt(i))) {
+				i++;
+			}
+			if (i < n && line.charAt(i) == '"') {
+				StringBuilder value = new StringBuilder();
+				i++;
+				while (true) {
+					if (i == n) {
+						throw new IllegalArgumentException("Field " + (values.size() + 1) + " has no closing quote");
+					}
+					char c = line.charAt(i++);
+					if (c != '"') {
+						value.append(c);
+					} else if (i < n && line.charAt(i) == '"') {
+						value.append('"');
+						i++;
+					} else {
+						break;
+					}
+				}
+				while (i < n && Character.isWhitespace(line.charAt(i))) {
+					i++;
+				}
+				if (i < n && line.charAt(i) != ',') {
+					throw new IllegalArgumentException(
+							"Field " + (values.size() + 1) + " has text after its closing quote");
+				}
+				values.add(value.toString());
+			} else {
+				int comma = line.indexOf(',', i);
+				int end = comma < 0 ? n : comma;
+				values.add(line.substring(i, end).trim());
+				i = end;
+			}
+			if (i == n) {
+				return values;
+			}
+			// skip the comma
+			i++;
+		}
+	}
+
+	/**
+	 * Appends every line of a CSV file to the given HeapFile. Lines are parsed
+	 * in chunks on a pool of threads while the calling thread packs the parsed
+	 * tuples into pages in file order. Blank lines are skipped.
+	 *
+	 * @param hf
+	 *            the file to load into
+	 * @param csv
+	 *            the CSV file, one tuple per line
+	 * @param threads
+	 *            the number of parsing threads
+	 * @return the number of tuples loaded
+	 * @throws IllegalArgumentException
+	 *             if a line cannot be parsed; the message gives its line
+	 *             number. Nothing is loaded then (see abort).
+	 * @throws Exception
+	 *             if the file cannot be read
+	 */
+	public static int importCsv(HeapFile hf, File csv, int threads) throws Exception {
+		BulkLoader loader = new BulkLoader(hf);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		BufferedReader in = new BufferedReader(new FileReader(csv));
+		try {
+			ArrayDeque<Future<List<Tuple>>> pending = new ArrayDeque<Future<List<Tuple>>>();
+			// blank lines stay in the chunks so that line numbers can be
+			// worked out from the first line of each
+			List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+			int firstLine = 1;
+			String line;
+			while ((line = in.readLine()) != null) {
+				chunk.add(line);
+				if (chunk.size() == CHUNK_LINES) {
+					pending.add(pool.submit(parser(hf.getTupleDesc(), csv, chunk, firstLine)));
+					firstLine += chunk.size();
+					chunk = new ArrayList<String>(CHUNK_LINES);
+					// keep a bounded number of chunks in memory
+					while (pending.size() > 2 * threads) {
+						loadChunk(loader, pending.poll());
+					}
+				}
+			}
+			if (!chunk.isEmpty()) {
+				pending.add(pool.submit(parser(hf.getTupleDesc(), csv, chunk, firstLine)));
+			}
+			while (!pending.isEmpty()) {
+				loadChunk(loader, pending.poll());
+			}
+			return loader.finish();
+		} catch (Exception e) {
+			try {
+				loader.abort();
+			} catch (Exception suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		} finally {
+			in.close();
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns a task that parses a chunk of lines, the first of which is line
+	 * firstLine of csv. Blank lines are skipped.
+	 */
+	private static Callable<List<Tuple>> parser(final TupleDesc td, final File csv, final List<String> lines,
+			final int firstLine) {
+		return new Callable<List<Tuple>>() {
+			public List<Tuple> call() {
+				List<Tuple> tuples = new ArrayList<Tuple>(lines.size());
+				for (int i = 0; i < lines.size(); i++) {
+					String line = lines.get(i);
+					if (line.trim().isEmpty()) {
+						continue;
+					}
+					try {
+						tuples.add(parseCsvLine(td, line));
+					} catch (IllegalArgumentException e) {
+						throw new IllegalArgumentException(csv + " line " + (firstLine + i) + ": " + e.getMessage(), e);
+					}
+				}
+				return tuples;
+			}
+		};
+	}
+
+	private static void loadChunk(BulkLoader loader, Future<List<Tuple>> chunk) throws Exception {
+		List<Tuple> tuples;
+		try {
+			tuples = chunk.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+		for (Tuple t : tuples) {
+			loader.add(t);
+		}
+	}
+}
@@ -5,6 +5,10 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import hw3.Index;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -14,13 +18,19 @@ import java.util.*;
  */
 
 public class Catalog {
-	private List<Table> tables;
+	// tables are looked up through these maps without locking; addTable and
+	// clear change them under the catalog's lock
+	private Map<String, Table> tablesByName;
+	private Map<Integer, Table> tablesById;
+	// ids in the order the tables were added
 	private List<Integer> tableIds;
 
-	private class Table {
-		HeapFile file;
-		String name;
-		String pkeyField;
+	private static class Table {
+		final HeapFile file;
+		final String name;
+		final String pkeyField;
+		// set by analyze
+		volatile TableStats stats;
 
 		public Table(HeapFile file, String name, String pkeyField) {
 			this.file = file;
@@ -33,8 +43,9 @@ public class Catalog {
 	 * Constructor. Creates a new, empty catalog.
 	 */
 	public Catalog() {
-		tables = new ArrayList<Catalog.Table>();
-		tableIds = new ArrayList<Integer>();
+		tablesByName = new ConcurrentHashMap<String, Table>();
+		tablesById = new ConcurrentHashMap<Integer, Table>();
+		tableIds = new CopyOnWriteArrayList<Integer>();
 	}
 
 	/**
@@ -44,25 +55,50 @@ public class Catalog {
 	 * @param file
 	 *            the contents of the table to add; file.getId() is the
 	 *            identfier of this file/tupledesc param for the calls
-	 *            getTupleDesc and getFile
+	 *            getTupleDesc and getFile. A HeapFile replaced by this one is
+	 *            closed, unless it is this same object.
 	 * @param name
 	 *            the name of the table -- may be an empty string. May not be
 	 *            null. If a name conflict exists, use the last table to be
 	 *            added as the table for a given name.
 	 * @param pkeyField
-	 *            the name of the primary key field
+	 *            the name of the primary key field. It is indexed here, which
+	 *            reads the whole table.
+	 * @throws IllegalArgumentException
+	 *             if another table, stored in a different file, already has
+	 *             the same id
 	 */
-	public void addTable(HeapFile file, String name, String pkeyField) {
-//		System.out.println("addTable called: tables size = " + tables.size());
-		for(int i = 0;i < tables.size(); i++){
-//			System.out.println(tables.get(i).name+":"+name);
-			if(tables.get(i).name.equals(name)){
-//				System.out.println("removing id: "+tables.get(i).file.getId());
-				tableIds.remove(new Integer(tables.get(i).file.getId()));
-				tables.remove(i);
+	public synchronized void addTable(HeapFile file, String name, String pkeyField) {
+		Table clash = tablesById.get(file.getId());
+		if (clash != null && !clash.name.equals(name)
+				&& !clash.file.getFile().getAbsoluteFile().equals(file.getFile().getAbsoluteFile())) {
+			throw new IllegalArgumentException("Table " + name + " has the same id as table " + clash.name);
+		}
+		Table old = tablesByName.get(name);
+		if (old != null) {
+			tablesById.remove(old.file.getId());
+			tableIds.remove(Integer.valueOf(old.file.getId()));
+			if (old.file != file) {
+				old.file.close();
+			}
+		}
+		if (clash != null && clash != old) {
+			// the same file under another name: the new entry replaces it
+			tablesByName.remove(clash.name);
+			tableIds.remove(Integer.valueOf(clash.file.getId()));
+			if (clash.file != file) {
+				clash.file.close();
+			}
+		}
+		Table t = new Table(file, name, pkeyField);
+		TupleDesc td = file.getTupleDesc();
+		for (int i = 0; i < td.numFields(); i++) {
+			if (td.getFieldName(i).equals(pkeyField)) {
+				file.createIndex(i);
 			}
 		}
-		tables.add(new Table(file, name, pkeyField));
+		tablesById.put(file.getId(), t);
+		tablesByName.put(name, t);
 		tableIds.add(file.getId());
 	}
 
@@ -77,12 +113,19 @@ public class Catalog {
 	 *             if the table doesn't exist
 	 */
 	public int getTableId(String name) {
-		for (Table t : tables) {
-			if (t.name.equals(name)) {
-				return t.file.getId();
-			}
+		Table t = tablesByName.get(name);
+		if (t == null) {
+			throw new NoSuchElementException();
+		}
+		return t.file.getId();
+	}
+
+	private Table getTable(int tableid) throws NoSuchElementException {
+		Table t = tablesById.get(tableid);
+		if (t == null) {
+			throw new NoSuchElementException();
 		}
-		throw new NoSuchElementException();
+		return t;
 	}
 
 	/**
@@ -93,12 +136,7 @@ public class Catalog {
 	 *            function passed to addTable
 	 */
 	public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-		for (Table t : tables) {
-			if (t.file.getId() == tableid) {
-				return t.file.getTupleDesc();
-			}
-		}
-		throw new NoSuchElementException();
+		return getTable(tableid).file.getTupleDesc();
 	}
 
 	/**
@@ -110,27 +148,89 @@ public class Catalog {
 	 *            function passed to addTable
 	 */
 	public HeapFile getDbFile(int tableid) throws NoSuchElementException {
-		for (Table t : tables) {
-			if (t.file.getId() == tableid) {
-				return t.file;
-			}
-		}
-		throw new NoSuchElementException();
+		return getTable(tableid).file;
 	}
 
 	/** Delete all tables from the catalog */
-	public void clear() {
-		tables.clear();
+	public synchronized void clear() {
+		for (Table t : tablesById.values()) {
+			t.file.close();
+		}
+		tablesByName.clear();
+		tablesById.clear();
 		tableIds.clear();
 	}
 
 	public String getPrimaryKey(int tableid) {
-		for (Table t : tables) {
-			if (t.file.getId() == tableid) {
-				return t.pkeyField;
-			}
+		Table t = tablesById.get(tableid);
+		return t == null ? null : t.pkeyField;
+	}
+
+	/**
+	 * Builds an index on a column of a table, or returns the one it already
+	 * has. Queries use it to read only the pages holding the values they
+	 * compare the column against.
+	 * 
+	 * @param tableid
+	 *            the id of the table
+	 * @param column
+	 *            the name of the column
+	 * @throws NoSuchElementException
+	 *             if the table or column doesn't exist
+	 */
+	public Index createIndex(int tableid, String column) throws NoSuchElementException {
+		HeapFile file = getTable(tableid).file;
+		return file.createIndex(file.getTupleDesc().nameToId(column));
+	}
+
+	/**
+	 * Returns the index on a column of a table. The primary key is indexed
+	 * when the table is added; other columns only have an index once
+	 * createIndex has been called. This never reads the table.
+	 * 
+	 * @param tableid
+	 *            the id of the table
+	 * @param field
+	 *            the field number (refer to TupleDesc) of the column
+	 * @return the index, or null if the column has none
+	 */
+	public Index getIndex(int tableid, int field) throws NoSuchElementException {
+		return getTable(tableid).file.getIndex(field);
+	}
+
+	/**
+	 * Reads a table and records its statistics (see TableStats), replacing
+	 * any collected before. Statistics are not updated as the table changes;
+	 * analyze it again after large changes.
+	 * 
+	 * @param tableid
+	 *            the id of the table
+	 * @return the new statistics
+	 */
+	public TableStats analyze(int tableid) throws NoSuchElementException {
+		Table t = getTable(tableid);
+		TableStats stats = new TableStats(t.file);
+		t.stats = stats;
+		return stats;
+	}
+
+	/**
+	 * Returns the statistics of a table. The table is analyzed first, which
+	 * reads all of it, if that was never done or if it has since grown to
+	 * more than twice or shrunk to less than half the pages it had; smaller
+	 * changes keep the statistics collected before.
+	 * 
+	 * @param tableid
+	 *            the id of the table
+	 */
+	public TableStats getTableStats(int tableid) throws NoSuchElementException {
+		Table t = getTable(tableid);
+		TableStats stats = t.stats;
+		int pages = t.file.getNumPages();
+		if (stats == null || pages > 2 * stats.getNumPages() + 1 || 2 * pages + 1 < stats.getNumPages()) {
+			return analyze(tableid);
 		}
-		return null;
+		return stats;
 	}
 
 	public Iterator<Integer> tableIdIterator() {
@@ -138,12 +238,8 @@ public class Catalog {
 	}
 
 	public String getTableName(int id) {
-		for (Table t : tables) {
-			if (t.file.getId() == id) {
-				return t.name;
-			}
-		}
-		return null;
+		Table t = tablesById.get(id);
+		return t == null ? null : t.name;
 	}
 
 	/**
@@ -161,6 +257,25 @@ public class Catalog {
 				// ...)
 				String name = line.substring(0, line.indexOf("(")).trim();
 				String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+				// anything after the column list is a table option
+				PageFormat format = PageFormat.FIXED;
+				boolean compressed = false;
+				boolean dictionary = false;
+				for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+					if (option.isEmpty()) {
+						continue;
+					}
+					if (PageFormat.fromName(option) != null) {
+						format = PageFormat.fromName(option);
+					} else if (option.equalsIgnoreCase("compressed")) {
+						compressed = true;
+					} else if (option.equalsIgnoreCase("dictionary")) {
+						dictionary = true;
+					} else {
+						System.out.println("Unknown table option " + option);
+						System.exit(0);
+					}
+				}
 				String[] els = fields.split(",");
 				ArrayList<String> names = new ArrayList<String>();
 				ArrayList<Type> types = new ArrayList<Type>();
@@ -188,7 +303,7 @@ public class Catalog {
 				Type[] typeAr = types.toArray(new Type[0]);
 				String[] namesAr = names.toArray(new String[0]);
 				TupleDesc t = new TupleDesc(typeAr, namesAr);
-				HeapFile tabHf = new HeapFile(new File("testfiles/" + name + ".dat"), t);
+				HeapFile tabHf = new HeapFile(new File("testfiles/" + name + ".dat"), t, format, compressed, dictionary);
 //				System.out.println("original id:"+tabHf.getId());
 //				System.out.println("^^^^^^"+tabHf.getAllTuples().size());
 				addTable(tabHf, name, primaryKey);
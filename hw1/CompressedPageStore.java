@@ -0,0 +1,375 @@
+package hw1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A PageStore that keeps every page deflated on disk. Compressed pages vary in
+ * size, so they are stored wherever there is room and a page-location map
+ * (kept in a ".pmap" file next to the data file) records the offset and length
+ * of each one.
+ *
+ * Space is handed out in SECTOR_SIZE units from a free list, falling back to
+ * the end of the file. A page is never written over sectors that the map on
+ * disk points to: a rewritten page goes to free sectors, and the sectors it
+ * left are only freed once a map that no longer uses them has been written.
+ * Until then a crash leaves the old map pointing at the old, intact images.
+ * A page written again before the next force may reuse its own new sectors.
+ *
+ * force() and close() sync the data and then write the location map to a
+ * temporary file that is synced and renamed over the old one, so the map on
+ * disk is always complete. Pages written since the last force are only
+ * reachable after a crash once one of those has run.
+ *
+ * A data file with no map was written by a plain PageStore. It is converted
+ * when it is opened (see convert). A new store writes its empty map at once,
+ * so a missing map always means an uncompressed file.
+ */
+public class CompressedPageStore extends PageStore {
+
+	public static final int SECTOR_SIZE = 512;
+
+	private File mapFile;
+	// per page: file offset of the compressed image, or -1 if never written
+	private long[] offsets;
+	// per page: length of the compressed image; 0 means an all-zero page
+	private int[] lengths;
+	private int numPages;
+	// sectors before endSector that hold no page image either map points to
+	private BitSet freeSectors;
+	private int endSector;
+	// pages whose image is not the one the map on disk points to
+	private BitSet moved;
+	// sectors only the map on disk still points to; freed once it is replaced
+	private BitSet released;
+	private boolean mapDirty;
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	/**
+	 * Opens (creating them if necessary) the given data file and its location
+	 * map. A data file without a map is converted first.
+	 *
+	 * @param f
+	 *            the file holding the compressed pages
+	 * @param pageSize
+	 *            size of an uncompressed page in bytes
+	 * @throws IOException
+	 */
+	public CompressedPageStore(File f, int pageSize) throws IOException {
+		super(convert(f, pageSize), pageSize);
+		mapFile = new File(f.getPath() + ".pmap");
+		offsets = new long[16];
+		lengths = new int[16];
+		moved = new BitSet();
+		released = new BitSet();
+		boolean exists = mapFile.exists();
+		if (exists) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+			try {
+				numPages = in.readInt();
+				ensureCapacity(numPages);
+				for (int pid = 0; pid < numPages; pid++) {
+					offsets[pid] = in.readLong();
+					lengths[pid] = in.readInt();
+				}
+			} finally {
+				in.close();
+			}
+		}
+		Arrays.fill(offsets, numPages, offsets.length, -1);
+		// every sector of the file that no page uses is free
+		endSector = (int) (roundUp(channel.size()) / SECTOR_SIZE);
+		freeSectors = new BitSet();
+		freeSectors.set(0, endSector);
+		for (int pid = 0; pid < numPages; pid++) {
+			if (offsets[pid] >= 0) {
+				int first = (int) (offsets[pid] / SECTOR_SIZE);
+				freeSectors.clear(first, first + sectors(lengths[pid]));
+			}
+		}
+		if (!exists) {
+			writeMap();
+		}
+	}
+
+	/**
+	 * Converts a data file written by a plain PageStore, which has pages but no
+	 * location map, so that it can be opened compressed. The pages are
+	 * compressed into a new file next to it, whose map is renamed into place
+	 * first and the data second. A crash in between leaves the new file and the
+	 * map, and the next open finishes the rename; a crash before leaves the
+	 * original untouched.
+	 *
+	 * @return f
+	 */
+	private static File convert(File f, int pageSize) throws IOException {
+		File map = new File(f.getPath() + ".pmap");
+		File tmp = new File(f.getPath() + ".compressing");
+		if (map.exists()) {
+			if (tmp.exists()) {
+				Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			return f;
+		}
+		Files.deleteIfExists(tmp.toPath());
+		Files.deleteIfExists(new File(tmp.getPath() + ".pmap").toPath());
+		if (!f.exists() || f.length() == 0) {
+			return f;
+		}
+		PageStore plain = new PageStore(f, pageSize);
+		CompressedPageStore compressed = new CompressedPageStore(tmp, pageSize);
+		try {
+			byte[] page = new byte[pageSize];
+			for (int pid = 0; pid < plain.getNumPages(); pid++) {
+				plain.readPage(pid, page);
+				compressed.writePage(pid, ByteBuffer.wrap(page));
+			}
+		} finally {
+			compressed.close();
+			plain.close();
+		}
+		Files.move(new File(tmp.getPath() + ".pmap").toPath(), map.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return f;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n > offsets.length) {
+			int size = Math.max(n, offsets.length * 2);
+			int old = offsets.length;
+			offsets = Arrays.copyOf(offsets, size);
+			lengths = Arrays.copyOf(lengths, size);
+			Arrays.fill(offsets, old, size, -1);
+		}
+	}
+
+	private static long roundUp(long n) {
+		return (n + SECTOR_SIZE - 1) / SECTOR_SIZE * SECTOR_SIZE;
+	}
+
+	/**
+	 * @return the number of sectors an image of the given length takes
+	 */
+	private static int sectors(int length) {
+		return (length + SECTOR_SIZE - 1) / SECTOR_SIZE;
+	}
+
+	/**
+	 * Finds room for an image of the given number of sectors: the first free
+	 * run long enough, or else the end of the file
+	 *
+	 * @return the file offset of the sectors, now no longer free
+	 */
+	private long allocate(int n) {
+		for (int start = freeSectors.nextSetBit(0); start >= 0 && n > 0;) {
+			int stop = freeSectors.nextClearBit(start);
+			if (stop - start >= n) {
+				freeSectors.clear(start, start + n);
+				return (long) start * SECTOR_SIZE;
+			}
+			start = freeSectors.nextSetBit(stop);
+		}
+		long offset = (long) endSector * SECTOR_SIZE;
+		endSector += n;
+		return offset;
+	}
+
+	@Override
+	public synchronized int getNumPages() {
+		return numPages;
+	}
+
+	@Override
+	public void readPage(int pid, byte[] dst) throws IOException {
+		long offset;
+		int length;
+		synchronized (this) {
+			offset = pid < numPages ? offsets[pid] : -1;
+			length = pid < numPages ? lengths[pid] : 0;
+		}
+		if (offset < 0 || length == 0) {
+			Arrays.fill(dst, 0, pageSize, (byte) 0);
+			return;
+		}
+		byte[] compressed = new byte[length];
+		ByteBuffer buf = ByteBuffer.wrap(compressed);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, offset + buf.position()) < 0) {
+				throw new IOException("Compressed page " + pid + " is truncated");
+			}
+		}
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(compressed);
+		try {
+			int n = 0;
+			while (n < pageSize && !inflater.finished()) {
+				int inflated = inflater.inflate(dst, n, pageSize - n);
+				if (inflated == 0 && inflater.needsInput()) {
+					throw new IOException("Compressed page " + pid + " is truncated");
+				}
+				n += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed page " + pid + " is corrupt", e);
+		}
+	}
+
+	@Override
+	public void writePage(int pid, ByteBuffer src) throws IOException {
+		byte[] page = new byte[pageSize];
+		src.duplicate().get(page);
+
+		byte[] compressed = new byte[pageSize + 64];
+		int length = 0;
+		if (!isZero(page)) {
+			Deflater deflater = deflaters.get();
+			deflater.reset();
+			deflater.setInput(page);
+			deflater.finish();
+			while (!deflater.finished()) {
+				if (length == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+		}
+
+		long offset;
+		synchronized (this) {
+			ensureCapacity(pid + 1);
+			offset = offsets[pid];
+			int need = sectors(length);
+			int had = offset < 0 ? 0 : sectors(lengths[pid]);
+			int first = (int) (offset / SECTOR_SIZE);
+			if (offset >= 0 && moved.get(pid) && need <= had) {
+				// only the new map knows these sectors, so they can be reused
+				freeSectors.set(first + need, first + had);
+			} else {
+				if (offset >= 0) {
+					(moved.get(pid) ? freeSectors : released).set(first, first + had);
+				}
+				offset = allocate(need);
+			}
+			moved.set(pid);
+			offsets[pid] = offset;
+			lengths[pid] = length;
+			numPages = Math.max(numPages, pid + 1);
+			mapDirty = true;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(compressed, 0, length);
+		while (buf.hasRemaining()) {
+			channel.write(buf, offset + buf.position());
+		}
+	}
+
+	private static boolean isZero(byte[] page) {
+		for (byte b : page) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void writePages(int[] pids, ByteBuffer[] srcs) throws IOException {
+		for (int i = 0; i < pids.length; i++) {
+			writePage(pids[i], srcs[i]);
+		}
+	}
+
+	/**
+	 * Drops every page from the given one on. Their sectors are freed the way
+	 * those of a rewritten page are; the file keeps its length.
+	 */
+	@Override
+	public synchronized void truncate(int numPages) {
+		if (numPages >= this.numPages) {
+			return;
+		}
+		for (int pid = numPages; pid < this.numPages; pid++) {
+			if (offsets[pid] >= 0) {
+				int first = (int) (offsets[pid] / SECTOR_SIZE);
+				(moved.get(pid) ? freeSectors : released).set(first, first + sectors(lengths[pid]));
+				offsets[pid] = -1;
+				lengths[pid] = 0;
+			}
+			moved.clear(pid);
+		}
+		this.numPages = numPages;
+		mapDirty = true;
+	}
+
+	/**
+	 * Syncs the data file and then writes out the location map, so the map on
+	 * disk never points at images that are not on disk yet
+	 */
+	@Override
+	public synchronized void force() throws IOException {
+		channel.force(false);
+		if (mapDirty) {
+			writeMap();
+		}
+	}
+
+	/**
+	 * Replaces the map on disk with the current one, through a synced
+	 * temporary file that is renamed over it. The sectors only the old map
+	 * pointed to are free afterwards.
+	 */
+	private void writeMap() throws IOException {
+		File tmp = new File(mapFile.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+		try {
+			out.writeInt(numPages);
+			for (int pid = 0; pid < numPages; pid++) {
+				out.writeLong(offsets[pid]);
+				out.writeInt(lengths[pid]);
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), mapFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		freeSectors.or(released);
+		released.clear();
+		moved.clear();
+		mapDirty = false;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		force();
+		super.close();
+	}
+}
@@ -1,6 +1,7 @@
 package hw1;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -38,5 +39,12 @@ public interface Field {
     
     public byte[] toByteArray();
 
+    /**
+     * Writes this field in its on-page format (the same bytes as toByteArray)
+     * into buf at its current position, advancing the position.
+     * @param buf The buffer to write to.
+     */
+    public void writeTo(ByteBuffer buf);
+
     public String toString();
 }
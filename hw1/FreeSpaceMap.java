@@ -0,0 +1,68 @@
+package hw1;
+
+import java.util.BitSet;
+
+/**
+ * A FreeSpaceMap remembers which pages of a HeapFile may still have an empty
+ * slot, so that inserts do not have to look at every page to find room.
+ *
+ * The map is a hint: a page is only marked full once somebody has looked at
+ * it and found no free slot, so pages that have never been examined count as
+ * having room. Callers must still check the page itself before inserting.
+ */
+public class FreeSpaceMap {
+
+	private BitSet free;
+	// no page below this one has room
+	private int hint;
+
+	/**
+	 * Creates a map for a file with the given number of pages, all of which
+	 * are assumed to have room until shown otherwise
+	 *
+	 * @param numPages
+	 *            the number of pages in the file
+	 */
+	public FreeSpaceMap(int numPages) {
+		free = new BitSet(numPages);
+		free.set(0, numPages);
+		hint = 0;
+	}
+
+	/**
+	 * @return the lowest numbered page that may have an empty slot, or -1 if
+	 *         every page is known to be full
+	 */
+	public int findPage() {
+		return findPage(0);
+	}
+
+	/**
+	 * @return the lowest numbered page at or after from that may have an empty
+	 *         slot, or -1 if there is none
+	 */
+	public synchronized int findPage(int from) {
+		int pid = free.nextSetBit(Math.max(from, hint));
+		if (from <= hint) {
+			hint = pid < 0 ? free.length() : pid;
+		}
+		return pid;
+	}
+
+	/**
+	 * Records that the given page has no empty slots
+	 */
+	public synchronized void markFull(int pid) {
+		free.clear(pid);
+	}
+
+	/**
+	 * Records that the given page (possibly a new one) has an empty slot
+	 */
+	public synchronized void markFree(int pid) {
+		free.set(pid);
+		if (pid < hint) {
+			hint = pid;
+		}
+	}
+}
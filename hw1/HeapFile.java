@@ -2,10 +2,21 @@ package hw1;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import hw3.Index;
 
 /**
  * A heap file stores a collection of tuples. It is also responsible for
@@ -21,8 +32,23 @@ public class HeapFile {
 
 	private File filePath;
 	private TupleDesc td;
+	private PageFormat format;
+	private boolean compressed;
+	// per field, the dictionary of a dictionary encoded STRING column, or null
+	// if no column is encoded
+	private StringDictionary[] dictionaries;
+	// layout of the tuples on the pages: td with INT for the encoded columns
+	private TupleDesc storedTd;
+	// page directory: one entry per page in the file. Pages that were changed
+	// through this HeapFile stay resident here; every other entry is null and
+	// the page is read from disk whenever it is needed.
 	public List<HeapPage> pages;
 	private int id;
+	private PageStore store;
+	private FreeSpaceMap freeSpace;
+	// indexes on this file's columns by field number, kept up to date as
+	// tuples are added and deleted
+	private final Map<Integer, Index> indexes = new ConcurrentHashMap<Integer, Index>();
 
 	/**
 	 * Creates a new heap file in the given location that can accept tuples of
@@ -34,25 +60,77 @@ public class HeapFile {
 	 *            type of tuples contained in the file
 	 */
 	public HeapFile(File f, TupleDesc type) {
+		this(f, type, PageFormat.FIXED);
+	}
+
+	/**
+	 * Creates a new heap file in the given location whose pages are stored in
+	 * the given format
+	 * 
+	 * @param f
+	 *            location of the heap file
+	 * @param type
+	 *            type of tuples contained in the file
+	 * @param format
+	 *            layout of the pages on disk
+	 */
+	public HeapFile(File f, TupleDesc type, PageFormat format) {
+		this(f, type, format, false);
+	}
+
+	/**
+	 * Creates a new heap file in the given location whose pages are stored in
+	 * the given format, optionally compressed
+	 * 
+	 * @param f
+	 *            location of the heap file
+	 * @param type
+	 *            type of tuples contained in the file
+	 * @param format
+	 *            layout of the pages on disk
+	 * @param compressed
+	 *            whether pages are deflated on disk (see CompressedPageStore)
+	 */
+	public HeapFile(File f, TupleDesc type, PageFormat format, boolean compressed) {
+		this(f, type, format, compressed, false);
+	}
+
+	/**
+	 * Creates a new heap file in the given location whose pages are stored in
+	 * the given format, optionally compressed, and optionally with every STRING
+	 * column dictionary encoded. The dictionary of column i is kept in a file
+	 * next to the heap file with ".dict" + i appended to its name.
+	 * 
+	 * @param f
+	 *            location of the heap file
+	 * @param type
+	 *            type of tuples contained in the file
+	 * @param format
+	 *            layout of the pages on disk
+	 * @param compressed
+	 *            whether pages are deflated on disk (see CompressedPageStore)
+	 * @param dictionary
+	 *            whether STRING columns are stored as codes (see
+	 *            StringDictionary)
+	 */
+	public HeapFile(File f, TupleDesc type, PageFormat format, boolean compressed, boolean dictionary) {
 		filePath = f;
 		td = type;
+		storedTd = type;
+		this.format = format;
+		this.compressed = compressed;
 		pages = new ArrayList<HeapPage>();
 		try {
-			RandomAccessFile file = new RandomAccessFile(filePath, "rw");
-			for (int pid = 0; pid * PAGE_SIZE < file.length(); pid++) {
-				pages.add(readPage(pid));
+			if (dictionary) {
+				openDictionaries();
 			}
-			file.close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		try {
-			RandomAccessFile file = new RandomAccessFile(filePath, "rw");
-			id = file.hashCode();
-			file.close();
+			store = compressed ? new CompressedPageStore(filePath, PAGE_SIZE) : new PageStore(filePath, PAGE_SIZE);
+			id = tableId(filePath);
+			pages.addAll(Collections.<HeapPage>nCopies(store.getNumPages(), null));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		freeSpace = new FreeSpaceMap(pages.size());
 //		System.out.println("id at file creation: "+getId());
 	}
 
@@ -64,10 +142,63 @@ public class HeapFile {
 		return td;
 	}
 
+	public PageFormat getFormat() {
+		return format;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public boolean isDictionaryEncoded() {
+		return dictionaries != null;
+	}
+
+	/**
+	 * @return the dictionary of the given field, or null if the field is not
+	 *         dictionary encoded
+	 */
+	public StringDictionary getDictionary(int field) {
+		return dictionaries == null ? null : dictionaries[field];
+	}
+
+	private void openDictionaries() throws IOException {
+		Type[] types = td.getTypes().clone();
+		dictionaries = new StringDictionary[types.length];
+		for (int i = 0; i < types.length; i++) {
+			if (types[i] == Type.STRING) {
+				dictionaries[i] = new StringDictionary(new File(filePath.getPath() + ".dict" + i));
+				types[i] = Type.INT;
+			}
+		}
+		storedTd = new TupleDesc(types, td.getFields().clone());
+	}
+
+	/**
+	 * Writes out dictionary values added since the last call. Must run before
+	 * pages that may use their codes are written.
+	 */
+	void saveDictionaries() throws IOException {
+		if (dictionaries == null) {
+			return;
+		}
+		for (StringDictionary dict : dictionaries) {
+			if (dict != null) {
+				dict.save();
+			}
+		}
+	}
+
+	/**
+	 * Creates a page of this file from its bytes
+	 */
+	HeapPage newPage(int pid, byte[] data) throws IOException {
+		return format.newPage(pid, data, getId(), storedTd, dictionaries);
+	}
+
 	/**
 	 * Creates a HeapPage object representing the page at the given page number.
-	 * Because it will be necessary to arbitrarily move around the file, a
-	 * RandomAccessFile object should be used here.
+	 * The page is read through this file's PageStore, which keeps the file open.
 	 * 
 	 * @param id
 	 *            the page number to be retrieved
@@ -75,12 +206,9 @@ public class HeapFile {
 	 */
 	public HeapPage readPage(int id) {
 		try {
-			RandomAccessFile file = new RandomAccessFile(filePath, "rw");
-			file.seek(id * PAGE_SIZE);
 			byte[] bytes = new byte[PAGE_SIZE];
-			file.read(bytes);
-			file.close();
-			return new HeapPage(id, bytes, getId(), td);
+			store.readPage(id, bytes);
+			return newPage(id, bytes);
 		} catch (Exception e) {
 			e.printStackTrace();
 			return null;
@@ -88,8 +216,107 @@ public class HeapFile {
 	}
 
 	/**
-	 * Returns a unique id number for this heap file. Consider using the hash of
-	 * the File itself.
+	 * Returns the given page, using the resident copy if this HeapFile holds
+	 * one and reading it from disk otherwise. Pages read here are not kept.
+	 * 
+	 * @param pid
+	 *            the page number
+	 * @return the page
+	 */
+	public HeapPage getPage(int pid) {
+		HeapPage hp = pages.get(pid);
+		return hp != null ? hp : readPage(pid);
+	}
+
+	/**
+	 * Returns the given page and keeps it resident so that changes made to it
+	 * are seen by later calls.
+	 */
+	private HeapPage loadPage(int pid) {
+		HeapPage hp = pages.get(pid);
+		if (hp == null) {
+			hp = readPage(pid);
+			pages.set(pid, hp);
+		}
+		return hp;
+	}
+
+	/**
+	 * Adds an empty page to the end of the file. The page exists only in the
+	 * directory until something writes it; reading it before then yields an
+	 * empty page.
+	 * 
+	 * @return the page number of the new page
+	 */
+	public synchronized int appendPage() {
+		int pid = pages.size();
+		pages.add(null);
+		freeSpace.markFree(pid);
+		return pid;
+	}
+
+	/**
+	 * Adds pages written directly to the PageStore by a BulkLoader to the page
+	 * directory, after forcing them to disk.
+	 * 
+	 * @param first
+	 *            the page number of the first loaded page
+	 * @param count
+	 *            the number of loaded pages
+	 * @param lastHasRoom
+	 *            whether the last loaded page has an empty slot
+	 * @throws IOException
+	 */
+	synchronized void addLoadedPages(int first, int count, boolean lastHasRoom) throws IOException {
+		if (first != pages.size()) {
+			throw new IllegalStateException("Pages were added to the file during a bulk load");
+		}
+		store.force();
+		pages.addAll(Collections.<HeapPage>nCopies(count, null));
+		if (lastHasRoom) {
+			freeSpace.markFree(first + count - 1);
+		}
+		for (Index index : indexes.values()) {
+			for (int pid = first; pid < first + count; pid++) {
+				index.addPage(getPage(pid));
+			}
+		}
+	}
+
+	/**
+	 * Called when a bulk load fails: drops the pages it wrote past the end of
+	 * the file, which were never added to it
+	 * 
+	 * @param first
+	 *            the first page the load wrote
+	 * @throws IllegalStateException
+	 *             if other pages have been added since the load started
+	 */
+	synchronized void discardLoadedPages(int first) throws IOException {
+		if (first != pages.size()) {
+			throw new IllegalStateException("Pages were added to the file during a bulk load");
+		}
+		store.truncate(first);
+	}
+
+	PageStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return the map of pages in this file that may have an empty slot
+	 */
+	public FreeSpaceMap getFreeSpaceMap() {
+		return freeSpace;
+	}
+
+	/**
+	 * Returns a unique id number for this heap file. The id is the hash of the
+	 * file's absolute path, so a table keeps the same id every time its file is
+	 * opened from the same place. Nothing records the id itself: if the file is
+	 * moved, or a schema with relative paths is loaded from another working
+	 * directory, the table gets a new id, so ids should not be kept outside
+	 * the running program.
 	 * 
 	 * @return
 	 */
@@ -98,19 +325,98 @@ public class HeapFile {
 	}
 
 	/**
-	 * Writes the given HeapPage to disk. Because of the need to seek through
-	 * the file, a RandomAccessFile object should be used in this method.
+	 * @return the id of the heap file stored at the given location
+	 */
+	public static int tableId(File f) {
+		return f.getAbsoluteFile().toPath().normalize().toString().hashCode();
+	}
+
+	/**
+	 * Writes the given HeapPage to disk through this file's PageStore.
 	 * 
 	 * @param p
 	 *            the page to write to disk
 	 * @throws IOException
 	 */
-	public void writePage(HeapPage p) throws IOException {
-		RandomAccessFile file = new RandomAccessFile(filePath, "rw");
-		file.seek(p.getId() * PAGE_SIZE);
-		// System.out.println("***" + p.getId());
-		file.write(p.getPageData());
-		file.close();
+	public synchronized void writePage(HeapPage p) throws IOException {
+		ByteBuffer buf = borrowWriteBuffer();
+		try {
+			p.writeTo(buf);
+			buf.flip();
+			saveDictionaries();
+			store.writePage(p.getId(), buf);
+		} finally {
+			WRITE_BUFFERS.offer(buf);
+		}
+	}
+
+	/**
+	 * Writes a group of pages to disk in page order and forces them to stable
+	 * storage once for the whole group.
+	 * 
+	 * @param ps
+	 *            the pages to write, sorted by page id
+	 * @throws IOException
+	 */
+	public synchronized void writePages(Collection<HeapPage> ps) throws IOException {
+		ByteBuffer buf = borrowWriteBuffer();
+		try {
+			int batch = buf.capacity() / PAGE_SIZE;
+			Iterator<HeapPage> it = ps.iterator();
+			while (it.hasNext()) {
+				// encode as many pages as fit in the write buffer, then write them
+				buf.clear();
+				int[] pids = new int[Math.min(batch, ps.size())];
+				ByteBuffer[] images = new ByteBuffer[pids.length];
+				int n = 0;
+				while (n < pids.length && it.hasNext()) {
+					HeapPage p = it.next();
+					images[n] = buf.duplicate();
+					p.writeTo(buf);
+					pids[n++] = p.getId();
+				}
+				if (n < pids.length) {
+					pids = Arrays.copyOf(pids, n);
+					images = Arrays.copyOf(images, n);
+				}
+				saveDictionaries();
+				store.writePages(pids, images);
+			}
+		} finally {
+			WRITE_BUFFERS.offer(buf);
+		}
+		store.force();
+	}
+
+	// direct buffers of REGION_PAGES pages that pages are encoded into on their
+	// way to disk. They are shared by every file and only taken for the length
+	// of a write, so there are as many as there have been concurrent writes
+	// rather than one per open table.
+	private static final ConcurrentLinkedQueue<ByteBuffer> WRITE_BUFFERS = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * @return a cleared write buffer, to be put back in WRITE_BUFFERS once the
+	 *         write is done
+	 */
+	private static ByteBuffer borrowWriteBuffer() {
+		ByteBuffer buf = WRITE_BUFFERS.poll();
+		if (buf == null) {
+			buf = ByteBuffer.allocateDirect(PageStore.REGION_PAGES * PAGE_SIZE);
+		}
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Closes the underlying file. The HeapFile must not be used afterwards.
+	 */
+	public void close() {
+		try {
+			saveDictionaries();
+			store.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
@@ -123,21 +429,33 @@ public class HeapFile {
 	 * @return The HeapPage that contains the tuple
 	 */
 	public HeapPage addTuple(Tuple t) {
-		for (HeapPage hp : pages) {
-			if (hp.hasEmptySlot()) {
+		for (int pid = freeSpace.findPage(); pid >= 0; pid = freeSpace.findPage(pid + 1)) {
+			HeapPage hp = getPage(pid);
+			if (hp.hasRoomFor(t)) {
+				pages.set(pid, hp);
 				try {
 					hp.addTuple(t);
-					//writePage(hp);
+					if (!hp.hasEmptySlot()) {
+						freeSpace.markFull(pid);
+					}
+					indexTuple(t, pid);
 					return hp;
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
 			}
+			if (!hp.hasEmptySlot()) {
+				freeSpace.markFull(pid);
+			}
 		}
 		try {
-			HeapPage newPage = new HeapPage(pages.size(), t, getId());
+			HeapPage newPage = newPage(pages.size(), new byte[PAGE_SIZE]);
+			newPage.addTuple(t);
 			pages.add(newPage);
-			//writePage(newPage);
+			if (newPage.hasEmptySlot()) {
+				freeSpace.markFree(newPage.getId());
+			}
+			indexTuple(t, newPage.getId());
 			return newPage;
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -156,13 +474,93 @@ public class HeapFile {
 	public void deleteTuple(Tuple t) {
 		int pid = t.getPid();
 		try {
-			pages.get(pid).deleteTuple(t);
-			//writePage(pages.get(pid));
+			Field[] keys = indexKeys(t);
+			HeapPage hp = loadPage(pid);
+			hp.deleteTuple(t);
+			freeSpace.markFree(pid);
+			unindexTuple(keys, hp);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Builds an index on one column, or returns the one already built. The
+	 * index is kept up to date as tuples are added to or deleted from this
+	 * file.
+	 * 
+	 * @param field
+	 *            the field number (refer to TupleDesc) of the column
+	 * @return the index
+	 */
+	public Index createIndex(int field) {
+		return indexes.computeIfAbsent(field, f -> new Index(this, f));
+	}
+
+	/**
+	 * @return the index on the given column, or null if it has none
+	 */
+	public Index getIndex(int field) {
+		return indexes.get(field);
+	}
+
+	public void dropIndex(int field) {
+		indexes.remove(field);
+	}
+
+	/**
+	 * Records in every index that a page now holds the given tuple. Used by
+	 * whatever adds tuples to this file's pages.
+	 */
+	public void indexTuple(Tuple t, int pid) {
+		for (Index index : indexes.values()) {
+			index.insert(t.getField(index.getField()), pid);
+		}
+	}
+
+	/**
+	 * Returns a tuple's values of the indexed columns, by field number, to be
+	 * passed to unindexTuple once it is deleted. Other entries are null.
+	 */
+	public Field[] indexKeys(Tuple t) {
+		Field[] keys = new Field[td.numFields()];
+		for (Index index : indexes.values()) {
+			keys[index.getField()] = t.getField(index.getField());
+		}
+		return keys;
+	}
+
+	/**
+	 * Updates the indexes after a tuple was deleted from a page
+	 * 
+	 * @param keys
+	 *            the tuple's indexKeys, taken before it was deleted
+	 * @param hp
+	 *            the page it was deleted from, after the delete
+	 */
+	public void unindexTuple(Field[] keys, HeapPage hp) {
+		for (Index index : indexes.values()) {
+			if (keys[index.getField()] != null) {
+				index.delete(keys[index.getField()], hp);
+			}
+		}
+	}
+
+	/**
+	 * Updates the indexes after an aborted transaction's changes to a page
+	 * were undone (see Index.restorePage)
+	 * 
+	 * @param changed
+	 *            the page as the transaction left it
+	 * @param restored
+	 *            the page put back in its place
+	 */
+	public void reindexPage(HeapPage changed, HeapPage restored) {
+		for (Index index : indexes.values()) {
+			index.restorePage(changed, restored);
+		}
+	}
+
 	/**
 	 * Returns an ArrayList containing all of the tuples in this HeapFile. It
 	 * must access each HeapPage to do this (see iterator() in HeapPage)
@@ -170,14 +568,244 @@ public class HeapFile {
 	 * @return
 	 */
 	public ArrayList<Tuple> getAllTuples() {
-		ArrayList<Tuple> allTuples = new ArrayList<Tuple>();
-		for (HeapPage hp : pages) {
-			Iterator<Tuple> iter = hp.iterator();
-			while (iter.hasNext()) {
-				allTuples.add(iter.next());
+		return scanPages(0, pages.size(), null, null, null);
+	}
+
+	/**
+	 * Returns the tuples whose given field satisfies a comparison. Each slot is
+	 * tested on the page itself (see matches() in HeapPage), so tuples are
+	 * only built for the slots that match.
+	 * 
+	 * @param field
+	 *            the field number (refer to TupleDesc) to compare
+	 * @param op
+	 *            the comparison operator
+	 * @param operand
+	 *            the constant to compare against
+	 * @return the matching tuples
+	 */
+	public ArrayList<Tuple> select(int field, RelationalOperator op, Field operand) {
+		return select(Predicate.of(field, op, operand));
+	}
+
+	/**
+	 * Returns the tuples that satisfy all of several predicates, each tested
+	 * on the page bytes (see matches(int, Predicate[]) in HeapPage).
+	 * 
+	 * @param predicates
+	 *            the conditions, or null to return every tuple
+	 * @return the matching tuples
+	 */
+	public ArrayList<Tuple> select(Predicate[] predicates) {
+		return scanPages(0, pages.size(), predicates, null, null);
+	}
+
+	/**
+	 * Like select, but the pages are split into ranges of SCAN_CHUNK_PAGES that
+	 * are decoded and tested on a fork-join pool, and the matching tuples hold
+	 * only the given fields. Each predicate is tested on the page's stored
+	 * bytes, and a tuple is only built once all of them hold. Files no bigger
+	 * than one range are scanned on the calling thread. Query.execute reads
+	 * single-table queries through this (see ScanIterator.readAll).
+	 * 
+	 * @param predicates
+	 *            the predicates to check, or null to return every tuple
+	 * @param fields
+	 *            the field numbers to return, or null for all of them
+	 * @param ordered
+	 *            whether the tuples must come back in file order. Unordered
+	 *            results are gathered as each range finishes, which saves
+	 *            copying them while the ranges are combined.
+	 * @return the matching tuples, with the schema getTupleDesc().project(fields)
+	 */
+	public ArrayList<Tuple> parallelSelect(Predicate[] predicates, int[] fields, boolean ordered) {
+		TupleDesc projected = fields == null ? null : td.project(fields);
+		int numPages = pages.size();
+		if (numPages <= SCAN_CHUNK_PAGES) {
+			return scanPages(0, numPages, predicates, fields, projected);
+		}
+		if (ordered) {
+			return SCAN_POOL.invoke(new ScanTask(0, numPages, predicates, fields, projected, null));
+		}
+		ArrayList<Tuple> result = new ArrayList<Tuple>();
+		SCAN_POOL.invoke(new ScanTask(0, numPages, predicates, fields, projected, result));
+		return result;
+	}
+
+	/**
+	 * Like select, but reads only pages [fromPage, toPage) and returns only the
+	 * given fields. Scans that stream a file a range at a time use this.
+	 * 
+	 * @param fromPage
+	 *            the first page to read
+	 * @param toPage
+	 *            the page after the last one to read
+	 * @param field
+	 *            the field number (refer to TupleDesc) to compare
+	 * @param op
+	 *            the comparison operator, or null to return every tuple
+	 * @param operand
+	 *            the constant to compare against
+	 * @param fields
+	 *            the field numbers to return, or null for all of them
+	 * @return the matching tuples of those pages, in file order
+	 */
+	public ArrayList<Tuple> scanRange(int fromPage, int toPage, int field, RelationalOperator op, Field operand,
+			int[] fields) {
+		return scanRange(fromPage, toPage, Predicate.of(field, op, operand), fields);
+	}
+
+	/**
+	 * Like scanRange above, but returns the tuples that satisfy all of several
+	 * predicates (see matches(int, Predicate[]) in HeapPage).
+	 * 
+	 * @param fromPage
+	 *            the first page to read
+	 * @param toPage
+	 *            the page after the last one to read
+	 * @param predicates
+	 *            the predicates to check, or null to return every tuple
+	 * @param fields
+	 *            the field numbers to return, or null for all of them
+	 * @return the matching tuples of those pages, in file order
+	 */
+	public ArrayList<Tuple> scanRange(int fromPage, int toPage, Predicate[] predicates, int[] fields) {
+		TupleDesc projected = fields == null ? null : td.project(fields);
+		return scanPages(fromPage, toPage, predicates, fields, projected);
+	}
+
+	// pages a parallel scan reads on one thread before splitting further
+	static final int SCAN_CHUNK_PAGES = 64;
+	// shared by all parallel scans; its threads are daemons
+	private static final ForkJoinPool SCAN_POOL = new ForkJoinPool();
+
+	/**
+	 * Scans a range of pages, splitting it in half until the pieces are small
+	 * enough to read directly. With a sink, each piece adds its tuples there as
+	 * it finishes and the task returns null; without one, results are
+	 * combined in page order.
+	 */
+	private class ScanTask extends RecursiveTask<ArrayList<Tuple>> {
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+		private int to;
+		private Predicate[] predicates;
+		private int[] fields;
+		private TupleDesc projected;
+		private ArrayList<Tuple> sink;
+
+		ScanTask(int from, int to, Predicate[] predicates, int[] fields, TupleDesc projected,
+				ArrayList<Tuple> sink) {
+			this.from = from;
+			this.to = to;
+			this.predicates = predicates;
+			this.fields = fields;
+			this.projected = projected;
+			this.sink = sink;
+		}
+
+		protected ArrayList<Tuple> compute() {
+			if (to - from <= SCAN_CHUNK_PAGES) {
+				ArrayList<Tuple> result = scanPages(from, to, predicates, fields, projected);
+				if (sink == null) {
+					return result;
+				}
+				synchronized (sink) {
+					sink.addAll(result);
+				}
+				return null;
+			}
+			int mid = (from + to) >>> 1;
+			ScanTask left = new ScanTask(from, mid, predicates, fields, projected, sink);
+			left.fork();
+			ArrayList<Tuple> right = new ScanTask(mid, to, predicates, fields, projected, sink).compute();
+			ArrayList<Tuple> result = left.join();
+			if (result != null) {
+				result.addAll(right);
 			}
+			return result;
 		}
-		return allTuples;
+	}
+
+	/**
+	 * Reads pages [from, to) and returns their tuples, or only those that
+	 * satisfy all the predicates if there are any. Predicates are checked on
+	 * the page bytes, so a tuple is only decoded once it is known to match. If
+	 * fields is not null, the tuples hold only those fields, with the schema
+	 * projected.
+	 */
+	private ArrayList<Tuple> scanPages(int from, int to, Predicate[] predicates, int[] fields, TupleDesc projected) {
+		ArrayList<Tuple> result = new ArrayList<Tuple>();
+		for (int pid = from; pid < to; pid++) {
+			scanPage(getPage(pid), predicates, fields, projected, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Like scanRange, but reads the listed pages instead of a range, such as
+	 * the pages an index lookup returned (see Index.lookup).
+	 * 
+	 * @param pageIds
+	 *            the page numbers to read, in the order to read them
+	 * @param predicates
+	 *            the predicates to check, or null to return every tuple
+	 * @param fields
+	 *            the field numbers to return, or null for all of them
+	 * @return the matching tuples of those pages
+	 */
+	public ArrayList<Tuple> scanPages(int[] pageIds, Predicate[] predicates, int[] fields) {
+		TupleDesc projected = fields == null ? null : td.project(fields);
+		ArrayList<Tuple> result = new ArrayList<Tuple>();
+		for (int pid : pageIds) {
+			scanPage(getPage(pid), predicates, fields, projected, result);
+		}
+		return result;
+	}
+
+	private void scanPage(HeapPage hp, Predicate[] predicates, int[] fields, TupleDesc projected,
+			ArrayList<Tuple> result) {
+		if (predicates == null) {
+			result.ensureCapacity(result.size() + hp.getNumOccupied());
+		}
+		for (int s = hp.nextOccupiedSlot(0); s >= 0; s = hp.nextOccupiedSlot(s + 1)) {
+			if (hp.matches(s, predicates)) {
+				result.add(fields == null ? hp.getTuple(s) : hp.getTuple(s, fields, projected));
+			}
+		}
+	}
+
+	/**
+	 * Returns an iterator over all of the tuples in this HeapFile. Pages are
+	 * fetched one at a time as the iterator reaches them, so only the current
+	 * page is held in memory.
+	 * 
+	 * @return
+	 */
+	public Iterator<Tuple> iterator() {
+		return new Iterator<Tuple>() {
+			private int pid = -1;
+			private HeapPage page = null;
+			private int slot = -1;
+
+			public boolean hasNext() {
+				while (slot < 0 && pid + 1 < pages.size()) {
+					page = getPage(++pid);
+					slot = page.nextOccupiedSlot(0);
+				}
+				return slot >= 0;
+			}
+
+			public Tuple next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Tuple t = page.getTuple(slot);
+				slot = page.nextOccupiedSlot(slot + 1);
+				return t;
+			}
+		};
 	}
 
 	/**
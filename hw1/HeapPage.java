@@ -1,70 +1,110 @@
 package hw1;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 
 public class HeapPage {
 
 	private int id;
-	private byte[] header;
-	private Tuple[] tuples;
-	private TupleDesc td;
+	// occupancy bitmap, 64 slots per word; bit s of the page header is bit
+	// (s % 64) of word s / 64
+	private long[] header;
+	private int headerSize;
+	private int numOccupied;
+	protected Tuple[] tuples;
+	// layout of the tuples as stored on the page
+	protected TupleDesc td;
+	// offsets of td's fields and the fixed format slot layout
+	protected final RowLayout layout;
+	// schema of the tuples handed out; differs from td in the STRING columns
+	// that are stored as dictionary codes
+	protected TupleDesc rowTd;
+	// per field, the dictionary its codes belong to, or null if none is
+	private StringDictionary[] dictionaries;
 	private int numSlots;
 	private int tableId;
+
+	// raw page bytes as read from disk; slots are decoded from here on demand
+	protected ByteBuffer data;
 	
+	// page image from before the current transaction dirtied it, or null if
+	// no transaction has dirtied the page since it was last committed
 	private byte[] oldData;
 	private Byte oldDataLock = new Byte((byte) 0);
+	// whether slots have been added or removed, or fields of its tuples set,
+	// since the page was decoded
+	protected boolean modified;
 	private boolean isDirty;
 	private int transactionId;
 
 	public HeapPage(int id, byte[] data, int tableId, TupleDesc td) throws IOException {
-		this.id = id;
-		this.tableId = tableId;
+		this(id, tableId, td, computeNumSlots(td));
+		this.data = ByteBuffer.wrap(data);
 
-		this.td = td;
-		this.numSlots = getNumSlots();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i = 0; i < header.length; i++)
-			header[i] = dis.readByte();
-
-		try {
-			// allocate and read the actual records of this page
-			tuples = new Tuple[numSlots];
-			for (int i = 0; i < tuples.length; i++)
-				tuples[i] = readNextTuple(dis, i);
-		} catch (NoSuchElementException e) {
-			e.printStackTrace();
-		}
-		dis.close();
-		
-		this.isDirty = false;
-	    this.transactionId = -1;
-	    setBeforeImage();
+		// the header is small and consulted constantly, so copy it out; tuples
+		// and their fields are only built when somebody asks for them
+		readHeader();
 	}
 
 	public HeapPage(int id, Tuple t, int tableId) throws Exception {
+		this(id, tableId, t.getDesc(), computeNumSlots(t.getDesc()));
+		addTuple(t);
+	}
+
+	/**
+	 * Creates an empty page with the given number of slots. Page formats that
+	 * lay out their bytes differently use this and then fill in the slots
+	 * from their own encoding.
+	 */
+	protected HeapPage(int id, int tableId, TupleDesc td, int numSlots) {
 		this.id = id;
 		this.tableId = tableId;
-		this.td = t.getDesc();
-		this.numSlots = getNumSlots();
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
+		this.td = td;
+		this.layout = td.getLayout();
+		this.rowTd = td;
+		this.numSlots = numSlots;
+		this.headerSize = getHeaderSize();
+		header = new long[(numSlots + 63) / 64];
 		tuples = new Tuple[numSlots];
-		addTuple(t);
-		
+
 		this.isDirty = false;
 	    this.transactionId = -1;
-	    setBeforeImage();
+	}
+
+	/**
+	 * Declares which fields hold dictionary codes. Those fields must be INT in
+	 * the page's TupleDesc; tuples read from or added to the page carry them
+	 * as StringFields.
+	 * 
+	 * @param dictionaries
+	 *            one entry per field, null for fields stored as they are
+	 */
+	void setDictionaries(StringDictionary[] dictionaries) {
+		this.dictionaries = dictionaries;
+		Type[] types = td.getTypes().clone();
+		for (int j = 0; j < types.length; j++) {
+			if (dictionaries[j] != null) {
+				types[j] = Type.STRING;
+			}
+		}
+		this.rowTd = new TupleDesc(types, td.getFields().clone());
+	}
+
+	/**
+	 * @return the dictionary the given field is encoded with, or null if the
+	 *         field is stored as it is
+	 */
+	public StringDictionary getDictionary(int field) {
+		return dictionaries == null ? null : dictionaries[field];
+	}
+
+	/**
+	 * @return the on-disk layout of this page
+	 */
+	public PageFormat getFormat() {
+		return PageFormat.FIXED;
 	}
 
 	public int getId() {
@@ -82,7 +122,11 @@ public class HeapPage {
 	 * @return number of slots on this page
 	 */
 	public int getNumSlots() {
-		return (int) (HeapFile.PAGE_SIZE / (td.getSize() + (float) 1 / 8));
+		return numSlots;
+	}
+
+	private static int computeNumSlots(TupleDesc td) {
+		return td.getLayout().getNumSlots();
 	}
 
 	/**
@@ -91,8 +135,28 @@ public class HeapPage {
 	 * 
 	 * @return size of header in bytes
 	 */
-	private int getHeaderSize() {
-		return (getNumSlots() + 7) / 8;
+	protected int getHeaderSize() {
+		return (numSlots + 7) / 8;
+	}
+
+	/**
+	 * Loads the slot bitmap from the first getHeaderSize() bytes of the page
+	 * buffer.
+	 */
+	protected final void readHeader() {
+		for (int i = 0; i < headerSize; i++)
+			header[i / 8] |= (this.data.get(i) & 0xFFL) << (8 * (i % 8));
+		for (long word : header)
+			numOccupied += Long.bitCount(word);
+	}
+
+	/**
+	 * Writes the slot bitmap into dst at its position.
+	 */
+	protected final void writeHeader(ByteBuffer dst) {
+		for (int i = 0; i < headerSize; i++) {
+			dst.put((byte) (header[i / 8] >>> (8 * (i % 8))));
+		}
 	}
 
 	/**
@@ -103,7 +167,7 @@ public class HeapPage {
 	 * @return true if occupied
 	 */
 	public boolean slotOccupied(int s) {
-		return ((header[s / 8] >> (s % 8)) & 1) == 1;
+		return ((header[s / 64] >>> (s % 64)) & 1L) == 1L;
 	}
 
 	/**
@@ -115,20 +179,86 @@ public class HeapPage {
 	 *            its occupied status
 	 */
 	public void setSlotOccupied(int s, boolean value) {
+		if (value == slotOccupied(s)) {
+			return;
+		}
+		modified = true;
 		if (value) {
-			header[s / 8] |= (1 << (s % 8));
+			header[s / 64] |= (1L << (s % 64));
+			numOccupied++;
 		} else {
-			header[s / 8] &= ~(1 << (s % 8));
+			header[s / 64] &= ~(1L << (s % 64));
+			numOccupied--;
+		}
+	}
+
+	/**
+	 * @return the number of occupied slots on this page
+	 */
+	public int getNumOccupied() {
+		return numOccupied;
+	}
+
+	/**
+	 * Finds the next occupied slot at or after the given slot, scanning the
+	 * header a word at a time. Together with getTuple this walks a page without
+	 * allocating anything:
+	 * 
+	 * <pre>
+	 * for (int s = hp.nextOccupiedSlot(0); s >= 0; s = hp.nextOccupiedSlot(s + 1))
+	 * </pre>
+	 * 
+	 * @param from
+	 *            the slot to start from
+	 * @return the slot number, or -1 if there are no more occupied slots
+	 */
+	public int nextOccupiedSlot(int from) {
+		if (from >= numSlots) {
+			return -1;
+		}
+		int w = from / 64;
+		long word = header[w] & (-1L << (from % 64));
+		while (true) {
+			if (word != 0) {
+				return w * 64 + Long.numberOfTrailingZeros(word);
+			}
+			if (++w == header.length) {
+				return -1;
+			}
+			word = header[w];
 		}
 	}
 
 	public boolean hasEmptySlot() {
-		for (int i = 0; i < getNumSlots(); i++) {
-			if (!slotOccupied(i)) {
-				return true;
+		return firstEmptySlot() >= 0;
+	}
+
+	/**
+	 * @return true if the given tuple can be added to this page. For fixed
+	 *         size tuples this is the same as hasEmptySlot.
+	 */
+	public boolean hasRoomFor(Tuple t) {
+		return hasEmptySlot();
+	}
+
+	/**
+	 * Finds the lowest numbered free slot by scanning the header a word at a
+	 * time.
+	 * 
+	 * @return the slot number, or -1 if the page is full
+	 */
+	public int firstEmptySlot() {
+		for (int w = 0; w < header.length; w++) {
+			long free = ~header[w];
+			if (w == header.length - 1 && numSlots % 64 != 0) {
+				// ignore the bits past the last slot
+				free &= (1L << (numSlots % 64)) - 1;
+			}
+			if (free != 0) {
+				return w * 64 + Long.numberOfTrailingZeros(free);
 			}
 		}
-		return false;
+		return -1;
 	}
 
 	/**
@@ -141,19 +271,17 @@ public class HeapPage {
 	 * @throws Exception
 	 */
 	public void addTuple(Tuple t) throws Exception {
-		if (t.getDesc().getSize() != td.getSize()) {
+		if (t.getDesc().getSize() != rowTd.getSize()) {
 			throw new Exception("Tuple insertion size mismatch!");
 		}
-		for (int y = 0; y < this.header.length; y++) {
-			for (int i = 0; i < 8; i++) {
-				if (!slotOccupied(y * 8 + i)) {
-					this.tuples[y * 8 + i] = t;
-					setSlotOccupied(y * 8 + i, true);
-					return;
-				}
-			}
+		int slot = firstEmptySlot();
+		if (slot < 0) {
+			throw new Exception("No empty slots available!");
 		}
-		throw new Exception("No empty slots available!");
+		t.setPid(this.id);
+		t.setId(slot);
+		this.tuples[slot] = t;
+		setSlotOccupied(slot, true);
 	}
 
 	/**
@@ -178,48 +306,202 @@ public class HeapPage {
 	}
 
 	/**
-	 * Suck up tuples from the source file.
+	 * Returns the tuple stored in the given slot, creating it on first access.
+	 * A tuple created here holds no fields yet; each one is decoded from the
+	 * page buffer the first time it is read (see decodeField).
+	 * 
+	 * @param slotId
+	 *            an occupied slot
+	 * @return the tuple in that slot
+	 */
+	public Tuple getTuple(int slotId) {
+		Tuple t = tuples[slotId];
+		if (t == null && data != null) {
+			t = new Tuple(rowTd);
+			t.setPid(this.id);
+			t.setId(slotId);
+			t.setSource(this);
+			tuples[slotId] = t;
+		}
+		return t;
+	}
+
+	/**
+	 * Called when a field of a tuple read from this page is set, so the page
+	 * bytes no longer hold its contents.
 	 */
-	private Tuple readNextTuple(DataInputStream dis, int slotId) {
-		// if associated bit is not set, read forward to the next tuple, and
-		// return null.
-		if (!slotOccupied(slotId)) {
-			for (int i = 0; i < td.getSize(); i++) {
-				try {
-					dis.readByte();
-				} catch (IOException e) {
-					throw new NoSuchElementException("error reading empty tuple");
-				}
-			}
-			return null;
+	void fieldChanged() {
+		modified = true;
+	}
+
+	/**
+	 * Byte offset of the given slot within the page buffer.
+	 */
+	private int slotOffset(int slotId) {
+		return headerSize + slotId * layout.getRowWidth();
+	}
+
+	/**
+	 * Byte offset of one field of the tuple in an occupied slot within the
+	 * page buffer.
+	 */
+	int fieldOffset(int slotId, int field) {
+		return slotOffset(slotId) + layout.getOffset(field);
+	}
+
+	/**
+	 * Decodes a single field of the tuple stored in the given slot straight from
+	 * the page buffer.
+	 */
+	Field decodeField(int slotId, int field) {
+		int offset = fieldOffset(slotId, field);
+		if (td.getType(field) == Type.INT) {
+			return new IntField(data.getInt(offset));
+		} else {
+			return new StringField(data, offset);
 		}
+	}
+
+	/**
+	 * Decodes a field as it appears in tuples, turning dictionary codes back
+	 * into strings.
+	 */
+	final Field readField(int slotId, int field) {
+		Field f = decodeField(slotId, field);
+		StringDictionary dict = getDictionary(field);
+		return dict == null ? f : new StringField(dict.decode(((IntField) f).getValue()));
+	}
 
-		// read fields in the tuple
-		Tuple t = new Tuple(td);
+	/**
+	 * Builds a tuple holding only the given fields of the tuple in an occupied
+	 * slot. Each requested field is decoded straight from its offset in the
+	 * page buffer; the other fields are never read. The tuple is not kept by
+	 * the page.
+	 * 
+	 * @param slotId
+	 *            an occupied slot
+	 * @param fields
+	 *            the field numbers (refer to TupleDesc) to decode, in the
+	 *            order they appear in the result
+	 * @param projected
+	 *            the schema of the result (see TupleDesc.project)
+	 * @return a tuple with one field per entry of fields
+	 */
+	public Tuple getTuple(int slotId, int[] fields, TupleDesc projected) {
+		Tuple resident = tuples[slotId];
+		Tuple t = new Tuple(projected);
 		t.setPid(this.id);
 		t.setId(slotId);
+		for (int i = 0; i < fields.length; i++) {
+			t.setField(i, resident != null ? resident.getField(fields[i]) : readField(slotId, fields[i]));
+		}
+		return t;
+	}
 
-		for (int j = 0; j < td.numFields(); j++) {
-			if (td.getType(j) == Type.INT) {
-				byte[] field = new byte[4];
-				try {
-					dis.read(field);
-					t.setField(j, new IntField(field));
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			} else {
-				byte[] field = new byte[129];
-				try {
-					dis.read(field);
-					t.setField(j, new StringField(field));
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+	/**
+	 * Returns a field of a tuple as it is stored on the page, replacing a
+	 * string with its dictionary code.
+	 */
+	protected final Field storedField(Tuple t, int field) {
+		Field f = t.getField(field);
+		StringDictionary dict = getDictionary(field);
+		return dict == null ? f : new IntField(dict.encode(((StringField) f).getValue()));
+	}
+
+	/**
+	 * Whether a field of the tuple in an occupied slot must be read from the
+	 * tuple, because the tuple was added or changed since the page was read.
+	 * Otherwise the field is still only in the page buffer.
+	 */
+	protected final boolean isResident(int slotId, int field) {
+		Tuple t = tuples[slotId];
+		return t != null && !(t.isFromSource(this, slotId) && !t.isFieldLoaded(field));
+	}
+
+	/**
+	 * Checks whether one field of the tuple in an occupied slot satisfies a
+	 * comparison. The comparison is made on the field's stored bytes; nothing
+	 * is decoded and no tuple is built for the slot.
+	 * Comparisons on dictionary encoded fields are made on the codes when the
+	 * dictionary allows it (see StringDictionary.bound).
+	 * 
+	 * @param slotId
+	 *            an occupied slot
+	 * @param field
+	 *            the field number (refer to TupleDesc) to compare
+	 * @param op
+	 *            the comparison operator
+	 * @param operand
+	 *            the constant to compare against
+	 * @return true if the comparison holds
+	 */
+	public boolean matches(int slotId, int field, RelationalOperator op, Field operand) {
+		StringDictionary dict = getDictionary(field);
+		if (dict != null) {
+			boolean resident = isResident(slotId, field);
+			StringDictionary.CodeBound bound = resident ? null : dict.bound(op, ((StringField) operand).getValue());
+			if (bound == null) {
+				Field f = resident ? tuples[slotId].getField(field) : readField(slotId, field);
+				return f.compare(op, operand);
 			}
+			return bound.matches(((IntField) decodeField(slotId, field)).getValue());
 		}
+		return matchesStored(slotId, field, op, operand);
+	}
 
-		return t;
+	/**
+	 * Like matches, but compares the field as it is stored on the page.
+	 */
+	protected boolean matchesStored(int slotId, int field, RelationalOperator op, Field operand) {
+		if (isResident(slotId, field)) {
+			return storedField(tuples[slotId], field).compare(op, operand);
+		}
+		int offset = fieldOffset(slotId, field);
+		if (td.getType(field) == Type.INT) {
+			return IntField.compare(data.getInt(offset), op, ((IntField) operand).getValue());
+		}
+		return StringField.compare(data, offset, op, ((StringField) operand).getValue());
+	}
+
+	/**
+	 * Checks whether the tuple in an occupied slot satisfies every one of the
+	 * given predicates (see matches above), stopping at the first that fails.
+	 * 
+	 * @param slotId
+	 *            an occupied slot
+	 * @param predicates
+	 *            the predicates to check, or null for none
+	 * @return true if all of them hold
+	 */
+	public boolean matches(int slotId, Predicate[] predicates) {
+		if (predicates == null) {
+			return true;
+		}
+		for (Predicate p : predicates) {
+			if (!matches(slotId, p.getField(), p.getOp(), p.getOperand())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the values of an INT column as stored on the page, indexed by
+	 * slot; for a dictionary encoded field these are the codes. Entries for
+	 * empty slots are meaningless.
+	 * 
+	 * @param field
+	 *            the field number (refer to TupleDesc) of an INT column
+	 * @return one value per slot on the page
+	 */
+	public int[] getIntColumn(int field) {
+		int[] values = new int[numSlots];
+		for (int s = nextOccupiedSlot(0); s >= 0; s = nextOccupiedSlot(s + 1)) {
+			Tuple t = tuples[s];
+			Field f = t != null ? storedField(t, field) : decodeField(s, field);
+			values[s] = ((IntField) f).getValue();
+		}
+		return values;
 	}
 
 	/**
@@ -233,68 +515,53 @@ public class HeapPage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = HeapFile.PAGE_SIZE;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// create the header of the page
-		for (int i = 0; i < header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		byte[] bytes = new byte[HeapFile.PAGE_SIZE];
+		writeTo(ByteBuffer.wrap(bytes));
+		return bytes;
+	}
 
-		// create the tuples
-		for (int i = 0; i < tuples.length; i++) {
+	/**
+	 * Encodes this page into dst, starting at its position, and advances the
+	 * position by one page. Every byte of the page is written, so dst may be
+	 * reused between pages.
+	 *
+	 * @param dst
+	 *            a buffer with at least PAGE_SIZE bytes remaining
+	 */
+	public void writeTo(ByteBuffer dst) {
+		writeHeader(dst);
 
-			// empty slot
+		int tupleSize = layout.getRowWidth();
+		for (int i = 0; i < numSlots; i++) {
+			Tuple t = tuples[i];
 			if (!slotOccupied(i)) {
-				for (int j = 0; j < td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
+				putZeroes(dst, tupleSize);
+			} else if (t == null) {
+				// never looked at, so the bytes on the page are still current
+				dst.put(data.array(), slotOffset(i), tupleSize);
+			} else {
+				boolean fromPage = t.isFromSource(this, i);
+				for (int j = 0; j < td.numFields(); j++) {
+					if (fromPage && !t.isFieldLoaded(j)) {
+						dst.put(data.array(), slotOffset(i) + layout.getOffset(j), layout.getFieldSize(j));
+					} else {
+						storedField(t, j).writeTo(dst);
 					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j = 0; j < td.numFields(); j++) {
-				System.out.println(i + ":" + tuples.length);
-				Field f = tuples[i].getField(j);
-				try {
-					dos.write(f.toByteArray());
-
-				} catch (IOException e) {
-					e.printStackTrace();
 				}
 			}
 		}
 
-		// padding
-		int zerolen = HeapFile.PAGE_SIZE - (header.length + td.getSize() * tuples.length); // -
-																							// numSlots
-																							// *
-																							// td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		putZeroes(dst, HeapFile.PAGE_SIZE - (headerSize + tupleSize * numSlots));
+	}
 
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	private static final byte[] ZEROES = new byte[HeapFile.PAGE_SIZE];
 
-		return baos.toByteArray();
+	protected static void putZeroes(ByteBuffer dst, int len) {
+		while (len > 0) {
+			int n = Math.min(len, ZEROES.length);
+			dst.put(ZEROES, 0, n);
+			len -= n;
+		}
 	}
 
 	/**
@@ -303,19 +570,29 @@ public class HeapPage {
 	 * @return
 	 */
 	public Iterator<Tuple> iterator() {
-		List<Tuple> accessibleTuples = new ArrayList<Tuple>();
-		for (int i = 0; i < tuples.length; i++) {
-			if (slotOccupied(i)) {
-				accessibleTuples.add(tuples[i]);
+		return new Iterator<Tuple>() {
+			private int slot = nextOccupiedSlot(0);
+
+			public boolean hasNext() {
+				return slot >= 0;
 			}
-		}
-		return accessibleTuples.iterator();
+
+			public Tuple next() {
+				if (slot < 0) {
+					throw new NoSuchElementException();
+				}
+				Tuple t = getTuple(slot);
+				slot = nextOccupiedSlot(slot + 1);
+				return t;
+			}
+		};
 	}
 	
-	// record the origin data.
+	// the current contents are committed; forget the before-image so that the
+	// next transaction to dirty the page captures a new one.
 	public void setBeforeImage() {
 	    synchronized (this.oldDataLock) {
-	    	this.oldData = getPageData().clone();
+	    	this.oldData = null;
 	    }
 	}
 	
@@ -326,7 +603,10 @@ public class HeapPage {
 	    	synchronized (this.oldDataLock) {
 	    		oldDataRef = this.oldData;
 	    	}
-	    	return new HeapPage(this.id, oldDataRef, this.tableId, this.td);
+	    	if (oldDataRef == null) {
+	    		oldDataRef = getPageData();
+	    	}
+	    	return getFormat().newPage(this.id, oldDataRef, this.tableId, this.td, this.dictionaries);
 	    } catch (IOException e) {
 	    	e.printStackTrace();
 	    	System.exit(1);
@@ -334,8 +614,18 @@ public class HeapPage {
 	    return null;
 	}
 	
-	// mark the page dirty state.
+	// mark the page dirty state. The first time a transaction dirties the page
+	// its current contents are kept as the before-image, so this must be called
+	// before the page is changed. A page that has not changed since it was read
+	// shares the bytes it was read from instead of encoding a copy.
 	public void markDirty(boolean dirty, int tid) {
+	    if (dirty) {
+	    	synchronized (this.oldDataLock) {
+	    		if (this.oldData == null) {
+	    			this.oldData = (modified || data == null) ? getPageData() : data.array();
+	    		}
+	    	}
+	    }
 	    this.isDirty = dirty;
 	    this.transactionId = isDirty ? tid : -1;
 	}
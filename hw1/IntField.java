@@ -46,6 +46,10 @@ public class IntField implements Field {
     	return ByteBuffer.allocate(4).putInt(value).array();
     }
 
+    public void writeTo(ByteBuffer buf) {
+    	buf.putInt(value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -54,26 +58,32 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(RelationalOperator op, Field val) {
+        return compare(value, op, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Compares two int values without wrapping them in IntFields.
+     *
+     * @return true if "value op other" holds
+     */
+    public static boolean compare(int value, RelationalOperator op, int other) {
         switch (op) {
         case EQ:
-            return value == iVal.value;
+            return value == other;
         case NOTEQ:
-            return value != iVal.value;
+            return value != other;
 
         case GT:
-            return value > iVal.value;
+            return value > other;
 
         case GTE:
-            return value >= iVal.value;
+            return value >= other;
 
         case LT:
-            return value < iVal.value;
+            return value < other;
 
         case LTE:
-            return value <= iVal.value;
+            return value <= other;
         }
 
         return false;
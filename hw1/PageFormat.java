@@ -0,0 +1,87 @@
+package hw1;
+
+import java.io.IOException;
+
+/**
+ * The on-disk layouts a HeapFile can store its pages in.
+ *
+ * FIXED is the original layout: a slot bitmap followed by fixed size slots,
+ * with every string padded out to 129 bytes. SLOTTED stores each tuple as a
+ * variable length record (strings take one length byte plus their characters)
+ * located through a slot directory at the front of the page. PAX keeps the
+ * slot bitmap but stores the page column by column, one minipage per field,
+ * with INT minipages compressed (see PaxHeapPage).
+ *
+ * An all-zero page is a valid empty page in every format.
+ */
+public enum PageFormat {
+	FIXED,
+	SLOTTED,
+	PAX;
+
+	/**
+	 * Decodes a page stored in this format
+	 *
+	 * @param id
+	 *            the page number
+	 * @param data
+	 *            the bytes of the page
+	 * @param tableId
+	 *            the id of the table the page belongs to
+	 * @param td
+	 *            the schema of the table
+	 * @return the page
+	 * @throws IOException
+	 */
+	public HeapPage newPage(int id, byte[] data, int tableId, TupleDesc td) throws IOException {
+		switch (this) {
+		case SLOTTED:
+			return new SlottedHeapPage(id, data, tableId, td);
+		case PAX:
+			return new PaxHeapPage(id, data, tableId, td);
+		default:
+			return new HeapPage(id, data, tableId, td);
+		}
+	}
+
+	/**
+	 * Decodes a page stored in this format whose STRING columns may be stored
+	 * as dictionary codes
+	 *
+	 * @param id
+	 *            the page number
+	 * @param data
+	 *            the bytes of the page
+	 * @param tableId
+	 *            the id of the table the page belongs to
+	 * @param td
+	 *            the layout of the stored tuples, with INT for encoded columns
+	 * @param dictionaries
+	 *            per field, the dictionary of an encoded column or null; the
+	 *            array itself may be null if no column is encoded
+	 * @return the page
+	 * @throws IOException
+	 */
+	public HeapPage newPage(int id, byte[] data, int tableId, TupleDesc td, StringDictionary[] dictionaries)
+			throws IOException {
+		HeapPage page = newPage(id, data, tableId, td);
+		if (dictionaries != null) {
+			page.setDictionaries(dictionaries);
+		}
+		return page;
+	}
+
+	/**
+	 * Parses a format name as written in a schema file
+	 *
+	 * @return the format, or null if the name is not a format
+	 */
+	public static PageFormat fromName(String name) {
+		for (PageFormat f : values()) {
+			if (f.name().equalsIgnoreCase(name)) {
+				return f;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,239 @@
+package hw1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A PageStore owns the open file behind a HeapFile and moves whole pages
+ * between it and memory. The file is opened once and kept open; pages are
+ * served out of memory-mapped regions of the file where possible and through
+ * positional reads and writes on the channel otherwise (the tail of the file
+ * that does not fill a whole region, and anything past MAX_MAPPED_SIZE).
+ */
+public class PageStore {
+
+	/** Number of pages covered by one mapped region. */
+	public static final int REGION_PAGES = 256;
+
+	/** Only the first MAX_MAPPED_SIZE bytes of a file are ever mapped. */
+	public static final long MAX_MAPPED_SIZE = 1L << 30;
+
+	protected final int pageSize;
+	private final long regionSize;
+	private RandomAccessFile file;
+	protected FileChannel channel;
+	private MappedByteBuffer[] regions;
+	private BitSet dirtyRegions;
+
+	/**
+	 * Opens (creating it if necessary) the given file for page I/O
+	 *
+	 * @param f
+	 *            the file holding the pages
+	 * @param pageSize
+	 *            size of a page in bytes
+	 * @throws IOException
+	 */
+	public PageStore(File f, int pageSize) throws IOException {
+		this.pageSize = pageSize;
+		this.regionSize = (long) pageSize * REGION_PAGES;
+		this.file = new RandomAccessFile(f, "rw");
+		this.channel = file.getChannel();
+		this.regions = new MappedByteBuffer[0];
+		this.dirtyRegions = new BitSet();
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return the number of pages in the file, counting a trailing partial page
+	 * @throws IOException
+	 */
+	public int getNumPages() throws IOException {
+		return (int) ((channel.size() + pageSize - 1) / pageSize);
+	}
+
+	/**
+	 * Returns the mapped region holding the given page, mapping it first if
+	 * needed. Returns null if the region lies (partly) past the end of the file
+	 * or beyond MAX_MAPPED_SIZE, in which case channel I/O should be used.
+	 */
+	private synchronized MappedByteBuffer region(int pid) throws IOException {
+		int r = (int) ((long) pid * pageSize / regionSize);
+		if (r < regions.length && regions[r] != null) {
+			return regions[r];
+		}
+		long start = r * regionSize;
+		if (start + regionSize > MAX_MAPPED_SIZE || start + regionSize > channel.size()) {
+			return null;
+		}
+		if (r >= regions.length) {
+			regions = Arrays.copyOf(regions, r + 1);
+		}
+		regions[r] = channel.map(FileChannel.MapMode.READ_WRITE, start, regionSize);
+		return regions[r];
+	}
+
+	private int offsetInRegion(int pid) {
+		return (int) ((long) pid * pageSize % regionSize);
+	}
+
+	/**
+	 * Reads the given page into dst. Bytes past the end of the file read as
+	 * zeroes.
+	 *
+	 * @param pid
+	 *            the page number
+	 * @param dst
+	 *            a buffer of at least one page
+	 * @throws IOException
+	 */
+	public void readPage(int pid, byte[] dst) throws IOException {
+		MappedByteBuffer region = region(pid);
+		if (region != null) {
+			ByteBuffer src = region.duplicate();
+			src.position(offsetInRegion(pid));
+			src.get(dst, 0, pageSize);
+			return;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(dst, 0, pageSize);
+		long pos = (long) pid * pageSize;
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, pos);
+			if (n < 0) {
+				break;
+			}
+			pos += n;
+		}
+		while (buf.hasRemaining()) {
+			buf.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Writes one page worth of bytes from src (starting at its position) as
+	 * the given page. Writing past the end of the file grows it.
+	 *
+	 * @param pid
+	 *            the page number
+	 * @param src
+	 *            the page image
+	 * @throws IOException
+	 */
+	public void writePage(int pid, ByteBuffer src) throws IOException {
+		ByteBuffer page = src.duplicate();
+		page.limit(page.position() + pageSize);
+		MappedByteBuffer region = region(pid);
+		if (region != null) {
+			ByteBuffer dst = region.duplicate();
+			dst.position(offsetInRegion(pid));
+			dst.put(page);
+			synchronized (this) {
+				dirtyRegions.set((int) ((long) pid * pageSize / regionSize));
+			}
+			return;
+		}
+		long pos = (long) pid * pageSize;
+		while (page.hasRemaining()) {
+			pos += channel.write(page, pos);
+		}
+	}
+
+	/**
+	 * Writes a batch of pages. The page numbers must be in ascending order.
+	 * Pages that fall in mapped regions are copied into them; every other run
+	 * of consecutive page numbers goes out as a single gathering write.
+	 *
+	 * @param pids
+	 *            the page numbers, ascending
+	 * @param srcs
+	 *            the page images, one per page number
+	 * @throws IOException
+	 */
+	public void writePages(int[] pids, ByteBuffer[] srcs) throws IOException {
+		int i = 0;
+		while (i < pids.length) {
+			if (region(pids[i]) != null) {
+				writePage(pids[i], srcs[i]);
+				i++;
+				continue;
+			}
+			int end = i + 1;
+			while (end < pids.length && pids[end] == pids[end - 1] + 1 && region(pids[end]) == null) {
+				end++;
+			}
+			ByteBuffer[] run = new ByteBuffer[end - i];
+			long remaining = 0;
+			for (int j = i; j < end; j++) {
+				run[j - i] = srcs[j].duplicate();
+				run[j - i].limit(run[j - i].position() + pageSize);
+				remaining += pageSize;
+			}
+			// gathering writes go through the channel position, so keep them
+			// from interleaving with each other
+			synchronized (this) {
+				channel.position((long) pids[i] * pageSize);
+				while (remaining > 0) {
+					remaining -= channel.write(run);
+				}
+			}
+			i = end;
+		}
+	}
+
+	/**
+	 * Forces everything written so far out to the storage device
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void force() throws IOException {
+		for (int r = dirtyRegions.nextSetBit(0); r >= 0; r = dirtyRegions.nextSetBit(r + 1)) {
+			regions[r].force();
+		}
+		dirtyRegions.clear();
+		channel.force(false);
+	}
+
+	/**
+	 * Drops every page from the given one on, shrinking the file. Regions
+	 * that reach past the new end are written out and no longer used.
+	 *
+	 * @param numPages
+	 *            the number of pages to keep
+	 * @throws IOException
+	 */
+	public synchronized void truncate(int numPages) throws IOException {
+		long size = (long) numPages * pageSize;
+		int keep = (int) Math.min(regions.length, size / regionSize);
+		for (int r = keep; r < regions.length; r++) {
+			if (regions[r] != null && dirtyRegions.get(r)) {
+				regions[r].force();
+			}
+		}
+		dirtyRegions.clear(keep, Math.max(keep, regions.length));
+		regions = Arrays.copyOf(regions, keep);
+		if (channel.size() > size) {
+			channel.truncate(size);
+		}
+	}
+
+	/**
+	 * Releases the file. Mapped regions stay valid until they are garbage
+	 * collected but are no longer used.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		regions = new MappedByteBuffer[0];
+		dirtyRegions.clear();
+		file.close();
+	}
+}
@@ -0,0 +1,347 @@
+package hw1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapPage stored column by column (PAX). After the slot bitmap comes a
+ * directory with the start of each column's minipage; each minipage holds
+ * that column's value for every slot on the page. Reading one column of a
+ * page therefore only touches that column's bytes.
+ *
+ * STRING minipages hold the usual 129 byte values back to back. INT minipages
+ * start with an encoding byte and use whichever of these is smallest:
+ * <ul>
+ * <li>PLAIN: 4 bytes per value</li>
+ * <li>FRAME_OF_REFERENCE: the minimum, then each value minus the minimum
+ * bit-packed</li>
+ * <li>DELTA: the first value, then the zigzag-encoded differences between
+ * neighbours bit-packed</li>
+ * <li>RUN_LENGTH: a run count, then (value, length) pairs</li>
+ * </ul>
+ * The slot count is worked out for PLAIN, so a page always fits.
+ */
+public class PaxHeapPage extends HeapPage {
+
+	private static final byte PLAIN = 0;
+	private static final byte FRAME_OF_REFERENCE = 1;
+	private static final byte DELTA = 2;
+	private static final byte RUN_LENGTH = 3;
+
+	// where each column's minipage starts in the page buffer
+	private int[] minipageOffsets;
+	// INT minipages decoded from the page buffer, filled in on first use
+	private int[][] intColumns;
+
+	public PaxHeapPage(int id, byte[] data, int tableId, TupleDesc td) throws IOException {
+		super(id, tableId, td, computeNumSlots(td));
+		this.data = ByteBuffer.wrap(data);
+		readHeader();
+
+		minipageOffsets = new int[td.numFields()];
+		intColumns = new int[td.numFields()][];
+		int directory = getHeaderSize();
+		for (int j = 0; j < td.numFields(); j++) {
+			minipageOffsets[j] = this.data.getShort(directory + 2 * j) & 0xFFFF;
+		}
+	}
+
+	@Override
+	public PageFormat getFormat() {
+		return PageFormat.PAX;
+	}
+
+	/**
+	 * Like the fixed layout, less the column directory and one encoding byte
+	 * per INT column.
+	 */
+	private static int computeNumSlots(TupleDesc td) {
+		int overhead = 2 * td.numFields();
+		for (Type t : td.getTypes()) {
+			if (t == Type.INT) {
+				overhead++;
+			}
+		}
+		return ((HeapFile.PAGE_SIZE - overhead) * 8 - 7) / (td.getSize() * 8 + 1);
+	}
+
+	private int[] decodedColumn(int field) {
+		int[] values = intColumns[field];
+		if (values == null) {
+			values = decodeInts(data, minipageOffsets[field], getNumSlots());
+			intColumns[field] = values;
+		}
+		return values;
+	}
+
+	/**
+	 * Only meaningful for STRING fields; INT minipages may be encoded.
+	 */
+	@Override
+	int fieldOffset(int slotId, int field) {
+		return minipageOffsets[field] + slotId * layout.getFieldSize(field);
+	}
+
+	@Override
+	Field decodeField(int slotId, int field) {
+		if (td.getType(field) == Type.INT) {
+			return new IntField(decodedColumn(field)[slotId]);
+		}
+		return super.decodeField(slotId, field);
+	}
+
+	@Override
+	protected boolean matchesStored(int slotId, int field, RelationalOperator op, Field operand) {
+		if (td.getType(field) != Type.INT || isResident(slotId, field)) {
+			return super.matchesStored(slotId, field, op, operand);
+		}
+		return IntField.compare(decodedColumn(field)[slotId], op, ((IntField) operand).getValue());
+	}
+
+	/**
+	 * Returns the minipage of an INT column, decoded, with the values of
+	 * tuples changed in memory since the page was read. The array may be
+	 * shared with the page and must not be modified.
+	 */
+	@Override
+	public int[] getIntColumn(int field) {
+		if (getNumOccupied() == 0 || modified) {
+			return super.getIntColumn(field);
+		}
+		int[] values = decodedColumn(field);
+		int[] changed = null;
+		for (int s = nextOccupiedSlot(0); s >= 0; s = nextOccupiedSlot(s + 1)) {
+			if (isResident(s, field)) {
+				if (changed == null) {
+					changed = values.clone();
+				}
+				changed[s] = ((IntField) storedField(tuples[s], field)).getValue();
+			}
+		}
+		return changed != null ? changed : values;
+	}
+
+	@Override
+	public void writeTo(ByteBuffer dst) {
+		int base = dst.position();
+		writeHeader(dst);
+		int directory = dst.position();
+		dst.position(directory + 2 * td.numFields());
+		for (int j = 0; j < td.numFields(); j++) {
+			dst.putShort(directory + 2 * j, (short) (dst.position() - base));
+			if (td.getType(j) == Type.INT) {
+				encodeInts(dst, fillEmptySlots(getIntColumn(j)));
+			} else {
+				writeStrings(dst, j);
+			}
+		}
+		putZeroes(dst, HeapFile.PAGE_SIZE - (dst.position() - base));
+	}
+
+	/**
+	 * Returns a copy of the column where every empty slot repeats the value
+	 * before it, which keeps runs and deltas short.
+	 */
+	private int[] fillEmptySlots(int[] column) {
+		int[] values = column.clone();
+		int first = nextOccupiedSlot(0);
+		int previous = first >= 0 ? values[first] : 0;
+		for (int s = 0; s < values.length; s++) {
+			if (slotOccupied(s)) {
+				previous = values[s];
+			} else {
+				values[s] = previous;
+			}
+		}
+		return values;
+	}
+
+	private void writeStrings(ByteBuffer dst, int field) {
+		int size = layout.getFieldSize(field);
+		for (int s = 0; s < getNumSlots(); s++) {
+			Tuple t = tuples[s];
+			if (!slotOccupied(s)) {
+				putZeroes(dst, size);
+			} else if (t == null || (t.isFromSource(this, s) && !t.isFieldLoaded(field))) {
+				dst.put(data.array(), minipageOffsets[field] + s * size, size);
+			} else {
+				t.getField(field).writeTo(dst);
+			}
+		}
+	}
+
+	private static int bitWidth(long v) {
+		return 64 - Long.numberOfLeadingZeros(v);
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static int packedSize(int n, int width) {
+		return (int) (((long) n * width + 7) / 8);
+	}
+
+	/**
+	 * Writes an INT minipage in whichever encoding is smallest
+	 */
+	private static void encodeInts(ByteBuffer dst, int[] values) {
+		int n = values.length;
+		long min = values[0];
+		long max = values[0];
+		long maxZigzag = 0;
+		int runs = 1;
+		for (int i = 1; i < n; i++) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+			maxZigzag = Math.max(maxZigzag, zigzag((long) values[i] - values[i - 1]));
+			if (values[i] != values[i - 1]) {
+				runs++;
+			}
+		}
+		int forWidth = bitWidth(max - min);
+		int deltaWidth = bitWidth(maxZigzag);
+
+		byte encoding = PLAIN;
+		int size = 4 * n;
+		if (forWidth <= 32 && 5 + packedSize(n, forWidth) < size) {
+			encoding = FRAME_OF_REFERENCE;
+			size = 5 + packedSize(n, forWidth);
+		}
+		if (deltaWidth <= 32 && 5 + packedSize(n - 1, deltaWidth) < size) {
+			encoding = DELTA;
+			size = 5 + packedSize(n - 1, deltaWidth);
+		}
+		if (2 + 6 * runs < size) {
+			encoding = RUN_LENGTH;
+		}
+
+		dst.put(encoding);
+		switch (encoding) {
+		case FRAME_OF_REFERENCE: {
+			dst.putInt((int) min);
+			dst.put((byte) forWidth);
+			long acc = 0;
+			int bits = 0;
+			for (int i = 0; i < n; i++) {
+				acc |= (values[i] - min) << bits;
+				bits += forWidth;
+				while (bits >= 8) {
+					dst.put((byte) acc);
+					acc >>>= 8;
+					bits -= 8;
+				}
+			}
+			if (bits > 0) {
+				dst.put((byte) acc);
+			}
+			break;
+		}
+		case DELTA: {
+			dst.putInt(values[0]);
+			dst.put((byte) deltaWidth);
+			long acc = 0;
+			int bits = 0;
+			for (int i = 1; i < n; i++) {
+				acc |= zigzag((long) values[i] - values[i - 1]) << bits;
+				bits += deltaWidth;
+				while (bits >= 8) {
+					dst.put((byte) acc);
+					acc >>>= 8;
+					bits -= 8;
+				}
+			}
+			if (bits > 0) {
+				dst.put((byte) acc);
+			}
+			break;
+		}
+		case RUN_LENGTH: {
+			dst.putShort((short) runs);
+			int start = 0;
+			for (int i = 1; i <= n; i++) {
+				if (i == n || values[i] != values[start]) {
+					dst.putInt(values[start]);
+					dst.putShort((short) (i - start));
+					start = i;
+				}
+			}
+			break;
+		}
+		default:
+			for (int v : values) {
+				dst.putInt(v);
+			}
+		}
+	}
+
+	/**
+	 * Reads n bit-packed values of the given width starting at offset
+	 */
+	private static long[] unpack(ByteBuffer src, int offset, int n, int width) {
+		long[] out = new long[n];
+		long mask = width == 0 ? 0 : -1L >>> (64 - width);
+		long acc = 0;
+		int bits = 0;
+		int pos = offset;
+		for (int i = 0; i < n; i++) {
+			while (bits < width) {
+				acc |= (src.get(pos++) & 0xFFL) << bits;
+				bits += 8;
+			}
+			out[i] = acc & mask;
+			acc >>>= width;
+			bits -= width;
+		}
+		return out;
+	}
+
+	/**
+	 * Decodes an INT minipage holding n values
+	 */
+	private static int[] decodeInts(ByteBuffer src, int offset, int n) {
+		int[] values = new int[n];
+		byte encoding = src.get(offset++);
+		switch (encoding) {
+		case FRAME_OF_REFERENCE: {
+			long min = src.getInt(offset);
+			long[] packed = unpack(src, offset + 5, n, src.get(offset + 4));
+			for (int i = 0; i < n; i++) {
+				values[i] = (int) (min + packed[i]);
+			}
+			break;
+		}
+		case DELTA: {
+			values[0] = src.getInt(offset);
+			long[] packed = unpack(src, offset + 5, n - 1, src.get(offset + 4));
+			for (int i = 1; i < n; i++) {
+				values[i] = (int) (values[i - 1] + unzigzag(packed[i - 1]));
+			}
+			break;
+		}
+		case RUN_LENGTH: {
+			int runs = src.getShort(offset) & 0xFFFF;
+			int pos = offset + 2;
+			int i = 0;
+			for (int r = 0; r < runs; r++) {
+				int value = src.getInt(pos);
+				int length = src.getShort(pos + 4) & 0xFFFF;
+				for (int k = 0; k < length; k++) {
+					values[i++] = value;
+				}
+				pos += 6;
+			}
+			break;
+		}
+		default:
+			for (int i = 0; i < n; i++) {
+				values[i] = src.getInt(offset + 4 * i);
+			}
+		}
+		return values;
+	}
+}
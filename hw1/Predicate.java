@@ -0,0 +1,58 @@
+package hw1;
+
+/**
+ * A comparison of one field of a tuple against a constant, as in a WHERE
+ * clause. Scans take an array of predicates that must all hold; pages test
+ * them on their stored bytes (see HeapPage.matches) before building tuples.
+ */
+public class Predicate {
+
+	private final int field;
+	private final RelationalOperator op;
+	private final Field operand;
+
+	/**
+	 * @param field
+	 *            the field number (refer to TupleDesc) to compare
+	 * @param op
+	 *            the comparison operator
+	 * @param operand
+	 *            the constant to compare against
+	 */
+	public Predicate(int field, RelationalOperator op, Field operand) {
+		this.field = field;
+		this.op = op;
+		this.operand = operand;
+	}
+
+	public int getField() {
+		return field;
+	}
+
+	public RelationalOperator getOp() {
+		return op;
+	}
+
+	public Field getOperand() {
+		return operand;
+	}
+
+	/**
+	 * @return true if the given tuple satisfies this predicate
+	 */
+	public boolean matches(Tuple t) {
+		return t.getField(field).compare(op, operand);
+	}
+
+	/**
+	 * @return the predicates for a single comparison, or null (no condition)
+	 *         if op is null
+	 */
+	public static Predicate[] of(int field, RelationalOperator op, Field operand) {
+		return op == null ? null : new Predicate[] { new Predicate(field, op, operand) };
+	}
+
+	public String toString() {
+		return "field " + field + " " + op + " " + operand;
+	}
+}
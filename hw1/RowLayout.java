@@ -0,0 +1,88 @@
+package hw1;
+
+/**
+ * The byte layout of a row of fixed size fields, worked out once from a
+ * TupleDesc (see TupleDesc.getLayout()). It holds where each field starts
+ * within a row, the width of a row, and how many rows and header bytes fit on
+ * a page in the fixed page format. Layouts never change after they are built,
+ * so they can be shared between threads freely.
+ */
+public final class RowLayout {
+
+	private final int[] offsets;
+	private final int[] fieldSizes;
+	private final int rowWidth;
+	private final int numSlots;
+	private final int headerSize;
+
+	/**
+	 * Computes the layout of rows with fields of the given types
+	 *
+	 * @param types
+	 *            the types of the fields, in order
+	 */
+	public RowLayout(Type[] types) {
+		offsets = new int[types.length];
+		fieldSizes = new int[types.length];
+		int width = 0;
+		for (int i = 0; i < types.length; i++) {
+			offsets[i] = width;
+			fieldSizes[i] = types[i] == Type.INT ? 4 : 129;
+			width += fieldSizes[i];
+		}
+		rowWidth = width;
+		// each slot costs its row plus one header bit:
+		// floor(PAGE_SIZE / (width + 1/8)) in integer arithmetic
+		numSlots = HeapFile.PAGE_SIZE * 8 / (width * 8 + 1);
+		headerSize = (numSlots + 7) / 8;
+	}
+
+	/**
+	 * @return the number of fields in a row
+	 */
+	public int numFields() {
+		return offsets.length;
+	}
+
+	/**
+	 * @return the byte offset of the i-th field from the start of a row
+	 */
+	public int getOffset(int i) {
+		return offsets[i];
+	}
+
+	/**
+	 * @return the size in bytes of the i-th field
+	 */
+	public int getFieldSize(int i) {
+		return fieldSizes[i];
+	}
+
+	/**
+	 * @return the size in bytes of a whole row
+	 */
+	public int getRowWidth() {
+		return rowWidth;
+	}
+
+	/**
+	 * @return the number of rows that fit on a fixed format page
+	 */
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	/**
+	 * @return the size in bytes of the slot bitmap of a fixed format page
+	 */
+	public int getHeaderSize() {
+		return headerSize;
+	}
+
+	/**
+	 * @return the byte offset of the given slot within a fixed format page
+	 */
+	public int getSlotOffset(int slot) {
+		return headerSize + slot * rowWidth;
+	}
+}
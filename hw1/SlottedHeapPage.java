@@ -0,0 +1,224 @@
+package hw1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapPage stored in the slotted format. The page starts with the number of
+ * slot directory entries and the offset where the record area begins,
+ * followed by the directory itself: one (offset, length) pair per slot, with
+ * offset 0 marking an empty slot. Records are packed at the end of the page
+ * and grow towards the directory.
+ *
+ * Ints take 4 bytes in a record and strings take one length byte plus their
+ * characters, so short strings cost only their real length. Records are
+ * compacted every time the page is written, at their current size: a string
+ * changed in place may make its record longer than when it was added.
+ */
+public class SlottedHeapPage extends HeapPage {
+
+	// slot count and start of the record area, both unsigned shorts
+	private static final int PAGE_HEADER_SIZE = 4;
+	// offset and length of one record, both unsigned shorts
+	private static final int SLOT_SIZE = 4;
+
+	// where each record read from disk starts in the page buffer
+	private int[] recordOffsets;
+	private int[] recordSizes;
+	private int recordBytes;
+	private int minRecordSize;
+
+	public SlottedHeapPage(int id, byte[] data, int tableId, TupleDesc td) throws IOException {
+		super(id, tableId, td, computeNumSlots(td));
+		this.data = ByteBuffer.wrap(data);
+		this.minRecordSize = minRecordSize(td);
+		this.recordOffsets = new int[getNumSlots()];
+		this.recordSizes = new int[getNumSlots()];
+
+		int count = this.data.getShort(0) & 0xFFFF;
+		for (int s = 0; s < count; s++) {
+			int offset = this.data.getShort(PAGE_HEADER_SIZE + s * SLOT_SIZE) & 0xFFFF;
+			if (offset != 0) {
+				recordOffsets[s] = offset;
+				recordSizes[s] = this.data.getShort(PAGE_HEADER_SIZE + s * SLOT_SIZE + 2) & 0xFFFF;
+				recordBytes += recordSizes[s];
+				setSlotOccupied(s, true);
+			}
+		}
+		this.modified = false;
+	}
+
+	@Override
+	public PageFormat getFormat() {
+		return PageFormat.SLOTTED;
+	}
+
+	/**
+	 * The most slots a page could need: every record as small as possible.
+	 */
+	private static int computeNumSlots(TupleDesc td) {
+		return (HeapFile.PAGE_SIZE - PAGE_HEADER_SIZE) / (SLOT_SIZE + minRecordSize(td));
+	}
+
+	private static int minRecordSize(TupleDesc td) {
+		int size = 0;
+		for (Type t : td.getTypes()) {
+			size += t == Type.INT ? 4 : 1;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the size in bytes of the given tuple as a record on this page
+	 */
+	private int recordSize(Tuple t) {
+		int size = 0;
+		for (int j = 0; j < td.numFields(); j++) {
+			if (td.getType(j) == Type.INT) {
+				size += 4;
+			} else {
+				size += 1 + ((StringField) t.getField(j)).getValue().length();
+			}
+		}
+		return size;
+	}
+
+	private int lastOccupiedSlot() {
+		int last = -1;
+		for (int s = nextOccupiedSlot(0); s >= 0; s = nextOccupiedSlot(s + 1)) {
+			last = s;
+		}
+		return last;
+	}
+
+	/**
+	 * Sizes again the records of the tuples held in memory, whose strings may
+	 * have been set since they were added or read. Nothing can have changed
+	 * unless the page is modified.
+	 */
+	private void updateRecordSizes() {
+		if (!modified) {
+			return;
+		}
+		recordBytes = 0;
+		for (int s = nextOccupiedSlot(0); s >= 0; s = nextOccupiedSlot(s + 1)) {
+			if (tuples[s] != null) {
+				recordSizes[s] = recordSize(tuples[s]);
+			}
+			recordBytes += recordSizes[s];
+		}
+	}
+
+	/**
+	 * @return the bytes the page would need with a record of the given size in
+	 *         the given slot
+	 */
+	private int bytesNeeded(int slot, int size) {
+		updateRecordSizes();
+		int directory = Math.max(lastOccupiedSlot(), slot) + 1;
+		return PAGE_HEADER_SIZE + directory * SLOT_SIZE + recordBytes + size;
+	}
+
+	@Override
+	public boolean hasEmptySlot() {
+		int slot = firstEmptySlot();
+		return slot >= 0 && bytesNeeded(slot, minRecordSize) <= HeapFile.PAGE_SIZE;
+	}
+
+	@Override
+	public boolean hasRoomFor(Tuple t) {
+		int slot = firstEmptySlot();
+		return slot >= 0 && bytesNeeded(slot, recordSize(t)) <= HeapFile.PAGE_SIZE;
+	}
+
+	@Override
+	public void addTuple(Tuple t) throws Exception {
+		if (!t.getDesc().equals(rowTd)) {
+			throw new Exception("Tuple insertion type mismatch!");
+		}
+		if (!hasRoomFor(t)) {
+			throw new Exception("Not enough free space on page!");
+		}
+		int slot = firstEmptySlot();
+		int size = recordSize(t);
+		t.setPid(getId());
+		t.setId(slot);
+		tuples[slot] = t;
+		setSlotOccupied(slot, true);
+		recordOffsets[slot] = 0;
+		recordSizes[slot] = size;
+		recordBytes += size;
+	}
+
+	@Override
+	public void deleteTuple(Tuple t) throws Exception {
+		super.deleteTuple(t);
+		recordBytes -= recordSizes[t.getId()];
+		recordSizes[t.getId()] = 0;
+	}
+
+	@Override
+	int fieldOffset(int slotId, int field) {
+		int offset = recordOffsets[slotId];
+		for (int j = 0; j < field; j++) {
+			offset += td.getType(j) == Type.INT ? 4 : 1 + (data.get(offset) & 0xFF);
+		}
+		return offset;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if strings changed in place have made the records too big
+	 *             for the page; nothing is written then
+	 */
+	@Override
+	public void writeTo(ByteBuffer dst) {
+		updateRecordSizes();
+		int base = dst.position();
+		int count = lastOccupiedSlot() + 1;
+		if (PAGE_HEADER_SIZE + count * SLOT_SIZE + recordBytes > HeapFile.PAGE_SIZE) {
+			throw new IllegalStateException("The records of page " + getId() + " no longer fit on it");
+		}
+		int end = HeapFile.PAGE_SIZE;
+		for (int s = 0; s < count; s++) {
+			int entry = base + PAGE_HEADER_SIZE + s * SLOT_SIZE;
+			if (!slotOccupied(s)) {
+				dst.putInt(entry, 0);
+				continue;
+			}
+			end -= recordSizes[s];
+			dst.putShort(entry, (short) end);
+			dst.putShort(entry + 2, (short) recordSizes[s]);
+			dst.position(base + end);
+			writeRecord(dst, s);
+		}
+		dst.putShort(base, (short) count);
+		dst.putShort(base + 2, (short) end);
+
+		int directoryEnd = PAGE_HEADER_SIZE + count * SLOT_SIZE;
+		dst.position(base + directoryEnd);
+		putZeroes(dst, end - directoryEnd);
+		dst.position(base + HeapFile.PAGE_SIZE);
+	}
+
+	private void writeRecord(ByteBuffer dst, int slot) {
+		Tuple t = tuples[slot];
+		if (t == null) {
+			// never looked at, so the record on the page is still current
+			dst.put(data.array(), recordOffsets[slot], recordSizes[slot]);
+			return;
+		}
+		for (int j = 0; j < td.numFields(); j++) {
+			Field f = storedField(t, j);
+			if (td.getType(j) == Type.INT) {
+				dst.putInt(((IntField) f).getValue());
+			} else {
+				String value = ((StringField) f).getValue();
+				dst.put((byte) value.length());
+				for (int i = 0; i < value.length(); i++) {
+					dst.put((byte) value.charAt(i));
+				}
+			}
+		}
+	}
+}
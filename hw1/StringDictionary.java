@@ -0,0 +1,259 @@
+package hw1;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the values of one STRING column of a table to int codes, so that pages
+ * store a 4 byte code instead of a 129 byte string and operators can compare
+ * and hash codes instead of strings.
+ *
+ * Codes are handed out so that they sort like their strings: a new value gets
+ * a code between the codes of its neighbours. If two neighbours have no code
+ * left between them, that and every later value is given the next code above
+ * all others and the dictionary stops being ordered. Equality can always be
+ * tested on codes; range comparisons only while the dictionary is ordered
+ * (see bound).
+ *
+ * Codes are never changed or reused. New values are appended to the
+ * dictionary's file by save(), which must run before any page holding their
+ * codes is written.
+ */
+public class StringDictionary {
+
+	// code of the first value, and the gap left after the highest value and
+	// before the lowest one, so that values added in order stay ordered
+	private static final int FIRST_CODE = 1 << 30;
+	private static final int STRIDE = 1 << 12;
+
+	private File file;
+	private TreeMap<String, Integer> sorted = new TreeMap<String, Integer>();
+	private Map<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+	private Map<Integer, String> values = new ConcurrentHashMap<Integer, String>();
+	private boolean ordered = true;
+	private int maxCode = -1;
+	// number of values added since the dictionary was opened; a CodeBound
+	// made before the latest of them no longer covers every code
+	private volatile int version;
+	// values added since the last save, in the order they were added
+	private ArrayList<String> unsaved = new ArrayList<String>();
+
+	/**
+	 * Opens the dictionary stored in the given file, creating an empty one if
+	 * the file does not exist
+	 *
+	 * @param f
+	 *            the file holding the dictionary
+	 * @throws IOException
+	 */
+	public StringDictionary(File f) throws IOException {
+		this.file = f;
+		if (!f.exists()) {
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			long valid = 0;
+			try {
+				while (valid < raf.length()) {
+					int code = raf.readInt();
+					String value = raf.readUTF();
+					add(value, code);
+					valid = raf.getFilePointer();
+				}
+			} catch (EOFException e) {
+				// an entry that was only partly written before a crash; its
+				// code cannot be on any page yet
+			}
+			raf.setLength(valid);
+		} finally {
+			raf.close();
+		}
+		Integer previous = null;
+		for (Integer code : sorted.values()) {
+			if (previous != null && code < previous) {
+				ordered = false;
+			}
+			previous = code;
+		}
+	}
+
+	private void add(String value, int code) {
+		sorted.put(value, code);
+		codes.put(value, code);
+		values.put(code, value);
+		maxCode = Math.max(maxCode, code);
+	}
+
+	/**
+	 * Returns the code of the given value, adding it to the dictionary if it
+	 * is new
+	 */
+	public int encode(String value) {
+		Integer code = codes.get(value);
+		if (code != null) {
+			return code;
+		}
+		synchronized (this) {
+			code = codes.get(value);
+			if (code != null) {
+				return code;
+			}
+			long lo = sorted.lowerKey(value) == null ? -1 : sorted.get(sorted.lowerKey(value));
+			long hi = sorted.higherKey(value) == null ? Integer.MAX_VALUE : sorted.get(sorted.higherKey(value));
+			long c;
+			if (lo < 0 && hi == Integer.MAX_VALUE) {
+				c = FIRST_CODE;
+			} else if (lo < 0) {
+				c = hi - STRIDE >= 0 ? hi - STRIDE : hi / 2;
+			} else if (hi == Integer.MAX_VALUE) {
+				c = lo + STRIDE < hi ? lo + STRIDE : (lo + hi) / 2;
+			} else {
+				c = (lo + hi) / 2;
+			}
+			if (!ordered || c <= lo || c >= hi) {
+				ordered = false;
+				c = maxCode + 1L;
+				if (c == Integer.MAX_VALUE) {
+					throw new IllegalStateException("Dictionary " + file + " is full");
+				}
+			}
+			add(value, (int) c);
+			unsaved.add(value);
+			version++;
+			return (int) c;
+		}
+	}
+
+	/**
+	 * @return the code of the given value, or -1 if it is not in the
+	 *         dictionary
+	 */
+	public int lookup(String value) {
+		Integer code = codes.get(value);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * @return the value with the given code
+	 */
+	public String decode(int code) {
+		return values.get(code);
+	}
+
+	public synchronized boolean isOrdered() {
+		return ordered;
+	}
+
+	/**
+	 * Rewrites a comparison against a string as one against codes (see
+	 * CodeBound)
+	 *
+	 * @return the rewritten comparison, or null if op is a range comparison
+	 *         and the dictionary is no longer ordered
+	 */
+	public synchronized CodeBound bound(RelationalOperator op, String s) {
+		if (!ordered && op != RelationalOperator.EQ && op != RelationalOperator.NOTEQ) {
+			return null;
+		}
+		return new CodeBound(op, s, codeBound(op, s), version);
+	}
+
+	/**
+	 * For every value v in the dictionary, "v op s" holds exactly when
+	 * "code(v) op codeBound(op, s)" does, as long as the dictionary is ordered
+	 * or op is EQ or NOTEQ
+	 */
+	private int codeBound(RelationalOperator op, String s) {
+		switch (op) {
+		case LT:
+		case GTE: {
+			// the smallest value at or above s
+			String ceiling = sorted.ceilingKey(s);
+			return ceiling == null ? Integer.MAX_VALUE : sorted.get(ceiling);
+		}
+		case LTE:
+		case GT: {
+			// the largest value at or below s
+			String floor = sorted.floorKey(s);
+			return floor == null ? -1 : sorted.get(floor);
+		}
+		default:
+			return lookup(s);
+		}
+	}
+
+	/**
+	 * A comparison "value op s" made into one on codes, for scans that test
+	 * many codes against the same string. It holds for the values in the
+	 * dictionary when it was made; a value added later may get a code on
+	 * either side of the bound. Once any has been added, matches() decodes
+	 * the code it is given and compares the strings instead.
+	 */
+	public class CodeBound {
+		private final RelationalOperator op;
+		private final StringField operand;
+		private final int code;
+		private final int version;
+
+		private CodeBound(RelationalOperator op, String s, int code, int version) {
+			this.op = op;
+			this.operand = new StringField(s);
+			this.code = code;
+			this.version = version;
+		}
+
+		/**
+		 * @param c
+		 *            a code read from a page or a tuple before this call
+		 * @return true if the value with code c satisfies the comparison
+		 */
+		public boolean matches(int c) {
+			if (version != StringDictionary.this.version) {
+				return new StringField(decode(c)).compare(op, operand);
+			}
+			return IntField.compare(c, op, code);
+		}
+	}
+
+	/**
+	 * @return the number of values in the dictionary
+	 */
+	public int size() {
+		return codes.size();
+	}
+
+	/**
+	 * Appends the values added since the last save to the dictionary's file
+	 * and forces them to disk
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (unsaved.isEmpty()) {
+			return;
+		}
+		FileOutputStream fos = new FileOutputStream(file, true);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+		try {
+			for (String value : unsaved) {
+				out.writeInt(codes.get(value));
+				out.writeUTF(value);
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			out.close();
+		}
+		unsaved.clear();
+	}
+}
@@ -1,9 +1,15 @@
 package hw1;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
+ *
+ * Stored strings take one byte per character, so only characters up to
+ * '\u00ff' survive being written. Stored bytes are read back unsigned, as
+ * those characters, everywhere a string is decoded or compared on a page or
+ * in a batch (see TupleBatch).
  */
 public class StringField implements Field {
     private String value;
@@ -29,15 +35,28 @@ public class StringField implements Field {
     }
     
     public StringField(byte[] b) {
-		int len = b[0];
+		int len = b[0] & 0xFF;
 		char[] s = new char[len];
 		for(int j = 1; j <= len; j++) {
-			s[j-1] = (char)b[j];
+			s[j-1] = (char)(b[j] & 0xFF);
 		}
 		String s2 = new String(s);
 		value = s2;
     }
 
+    /**
+     * Decodes a string stored in the on-page format (one length byte followed
+     * by the characters) at the given offset of a page buffer.
+     */
+    public StringField(ByteBuffer buf, int offset) {
+		int len = buf.get(offset) & 0xFF;
+		char[] s = new char[len];
+		for(int j = 0; j < len; j++) {
+			s[j] = (char)(buf.get(offset + 1 + j) & 0xFF);
+		}
+		value = new String(s);
+    }
+
     public String toString() {
         return value;
     }
@@ -78,8 +97,33 @@ public class StringField implements Field {
     public boolean compare(RelationalOperator op, Field val) {
 
         StringField iVal = (StringField) val;
-        int cmpVal = value.compareTo(iVal.value);
+        return holds(value.compareTo(iVal.value), op);
+    }
+
+    /**
+     * Compares a string stored in the on-page format at the given offset of a
+     * page buffer against a value, without decoding the stored string.
+     *
+     * @return true if "stored op other" holds
+     */
+    public static boolean compare(ByteBuffer buf, int offset, RelationalOperator op, String other) {
+        int len = buf.get(offset) & 0xFF;
+        int n = Math.min(len, other.length());
+        int cmpVal = len - other.length();
+        for (int j = 0; j < n; j++) {
+            char c = (char) (buf.get(offset + 1 + j) & 0xFF);
+            if (c != other.charAt(j)) {
+                cmpVal = c - other.charAt(j);
+                break;
+            }
+        }
+        return holds(cmpVal, op);
+    }
 
+    /**
+     * @return true if a comparison with the given compareTo result satisfies op
+     */
+    private static boolean holds(int cmpVal, RelationalOperator op) {
         switch (op) {
         case EQ:
             return cmpVal == 0;
@@ -110,6 +154,16 @@ public class StringField implements Field {
 		return Type.STRING;
 	}
 	
+	public void writeTo(ByteBuffer buf) {
+		buf.put((byte)value.length());
+		for(int i = 0; i < value.length(); i++) {
+			buf.put((byte)value.charAt(i));
+		}
+		for(int i = value.length(); i < maxSize; i++) {
+			buf.put((byte)0);
+		}
+	}
+
 	public byte[] toByteArray() {
 		byte[] result = new byte[129];
 		result[0] = (byte)value.length();
@@ -0,0 +1,265 @@
+package hw1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Statistics about the contents of a HeapFile, collected by reading it once
+ * (see Catalog.analyze). They describe the table as it was then; see
+ * Catalog.getTableStats for when they are collected again. For each column they hold the minimum and maximum,
+ * an estimate of the number of distinct values and, for INT columns, an
+ * equi-depth histogram. The query planner uses them to guess how many rows
+ * a condition or a join lets through.
+ *
+ * Distinct values are estimated from the DISTINCT_HASHES smallest hashes of
+ * the column's values (k minimum values); columns with fewer distinct values
+ * than that are counted exactly. Histograms are built from a random sample of
+ * at most SAMPLE_SIZE values, each bucket holding the same share of them.
+ */
+public class TableStats {
+
+	public static final int NUM_BUCKETS = 100;
+	public static final int SAMPLE_SIZE = 10000;
+	public static final int DISTINCT_HASHES = 1024;
+
+	private int numTuples;
+	private int numPages;
+	private Field[] mins;
+	private Field[] maxs;
+	private int[] distinct;
+	// per INT column, the bucket boundaries: NUM_BUCKETS + 1 values from the
+	// minimum to the maximum, with an equal share of the rows between each
+	// neighbouring pair. Null for STRING columns and empty tables.
+	private int[][] histograms;
+
+	/**
+	 * Reads every tuple of a file and collects its statistics
+	 *
+	 * @param hf
+	 *            the file to analyze
+	 */
+	public TableStats(HeapFile hf) {
+		TupleDesc td = hf.getTupleDesc();
+		int n = td.numFields();
+		numPages = hf.getNumPages();
+		mins = new Field[n];
+		maxs = new Field[n];
+		distinct = new int[n];
+		histograms = new int[n][];
+
+		Random random = new Random(0);
+		int[][] samples = new int[n][];
+		ArrayList<PriorityQueue<Long>> hashes = new ArrayList<PriorityQueue<Long>>(n);
+		ArrayList<HashSet<Long>> kept = new ArrayList<HashSet<Long>>(n);
+		for (int j = 0; j < n; j++) {
+			hashes.add(new PriorityQueue<Long>(DISTINCT_HASHES, (a, b) -> Long.compare(b, a)));
+			kept.add(new HashSet<Long>());
+			if (td.getType(j) == Type.INT) {
+				samples[j] = new int[SAMPLE_SIZE];
+			}
+		}
+		Iterator<Tuple> it = hf.iterator();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			for (int j = 0; j < n; j++) {
+				Field f = t.getField(j);
+				if (mins[j] == null || f.compare(RelationalOperator.LT, mins[j])) {
+					mins[j] = f;
+				}
+				if (maxs[j] == null || f.compare(RelationalOperator.GT, maxs[j])) {
+					maxs[j] = f;
+				}
+				addHash(hashes.get(j), kept.get(j), f.hashCode());
+				if (samples[j] != null) {
+					// reservoir sampling: every value has the same chance to
+					// be in the sample
+					if (numTuples < SAMPLE_SIZE) {
+						samples[j][numTuples] = ((IntField) f).getValue();
+					} else {
+						int r = random.nextInt(numTuples + 1);
+						if (r < SAMPLE_SIZE) {
+							samples[j][r] = ((IntField) f).getValue();
+						}
+					}
+				}
+			}
+			numTuples++;
+		}
+
+		for (int j = 0; j < n; j++) {
+			distinct[j] = estimateDistinct(hashes.get(j));
+			if (samples[j] != null && numTuples > 0) {
+				int[] sample = Arrays.copyOf(samples[j], Math.min(numTuples, SAMPLE_SIZE));
+				Arrays.sort(sample);
+				int[] bounds = new int[NUM_BUCKETS + 1];
+				for (int b = 0; b <= NUM_BUCKETS; b++) {
+					bounds[b] = sample[(int) ((long) b * (sample.length - 1) / NUM_BUCKETS)];
+				}
+				// the sample may have missed the ends
+				bounds[0] = ((IntField) mins[j]).getValue();
+				bounds[NUM_BUCKETS] = ((IntField) maxs[j]).getValue();
+				histograms[j] = bounds;
+			}
+		}
+	}
+
+	/**
+	 * Keeps the hash of a value if it is among the DISTINCT_HASHES smallest
+	 * seen so far. The queue has the largest kept hash at its head.
+	 */
+	private static void addHash(PriorityQueue<Long> hashes, HashSet<Long> kept, int hashCode) {
+		int h = hashCode * 0x9E3779B9;
+		long hash = (h ^ (h >>> 16)) & 0xFFFFFFFFL;
+		if (kept.contains(hash)) {
+			return;
+		}
+		if (hashes.size() < DISTINCT_HASHES) {
+			hashes.add(hash);
+			kept.add(hash);
+		} else if (hash < hashes.peek()) {
+			kept.remove(hashes.poll());
+			hashes.add(hash);
+			kept.add(hash);
+		}
+	}
+
+	private static int estimateDistinct(PriorityQueue<Long> hashes) {
+		if (hashes.size() < DISTINCT_HASHES) {
+			return hashes.size();
+		}
+		// the k smallest of d evenly spread hashes end near k / d of the way
+		// through the hash space
+		double estimate = (DISTINCT_HASHES - 1) * ((double) (1L << 32) / (hashes.peek() + 1));
+		return (int) Math.min(Integer.MAX_VALUE, estimate);
+	}
+
+	public int getNumTuples() {
+		return numTuples;
+	}
+
+	public int getNumPages() {
+		return numPages;
+	}
+
+	/**
+	 * @return the smallest value of a column, or null if the table is empty
+	 */
+	public Field getMin(int field) {
+		return mins[field];
+	}
+
+	/**
+	 * @return the largest value of a column, or null if the table is empty
+	 */
+	public Field getMax(int field) {
+		return maxs[field];
+	}
+
+	/**
+	 * @return the estimated number of distinct values of a column
+	 */
+	public int getNumDistinct(int field) {
+		return distinct[field];
+	}
+
+	/**
+	 * Returns the bucket boundaries of an INT column's equi-depth histogram
+	 *
+	 * @return NUM_BUCKETS + 1 values, or null for a STRING column or an empty
+	 *         table
+	 */
+	public int[] getHistogram(int field) {
+		return histograms[field];
+	}
+
+	/**
+	 * Estimates the fraction of rows whose value of an INT column is less
+	 * than v, reading the histogram as a line through each bucket boundary
+	 */
+	private double fractionBelow(int[] bounds, long v) {
+		if (v <= bounds[0]) {
+			return 0;
+		}
+		if (v > bounds[NUM_BUCKETS]) {
+			return 1;
+		}
+		// the last boundary below v; the next one is at least v
+		int k = 0;
+		int hi = NUM_BUCKETS;
+		while (k + 1 < hi) {
+			int mid = (k + hi) >>> 1;
+			if (bounds[mid] < v) {
+				k = mid;
+			} else {
+				hi = mid;
+			}
+		}
+		return (k + (double) (v - bounds[k]) / (bounds[k + 1] - bounds[k])) / NUM_BUCKETS;
+	}
+
+	/**
+	 * Estimates the fraction of rows that satisfy a comparison on a column.
+	 * INT columns use their histogram; STRING columns assume values are
+	 * spread evenly over the distinct values, and that a range comparison
+	 * lets a third of the rows through.
+	 *
+	 * @param field
+	 *            the field number (refer to TupleDesc) compared
+	 * @param op
+	 *            the comparison operator
+	 * @param operand
+	 *            the constant compared against
+	 * @return a fraction between 0 and 1
+	 */
+	public double estimateSelectivity(int field, RelationalOperator op, Field operand) {
+		if (numTuples == 0) {
+			return 0;
+		}
+		double equal;
+		int[] bounds = histograms[field];
+		if (bounds != null) {
+			long v = ((IntField) operand).getValue();
+			equal = v < bounds[0] || v > bounds[NUM_BUCKETS] ? 0
+					: Math.max(fractionBelow(bounds, v + 1) - fractionBelow(bounds, v), 1.0 / distinct[field]);
+			switch (op) {
+			case LT:
+				return fractionBelow(bounds, v);
+			case LTE:
+				return fractionBelow(bounds, v + 1);
+			case GT:
+				return 1 - fractionBelow(bounds, v + 1);
+			case GTE:
+				return 1 - fractionBelow(bounds, v);
+			default:
+				break;
+			}
+		} else {
+			equal = 1.0 / Math.max(1, distinct[field]);
+			if (op != RelationalOperator.EQ && op != RelationalOperator.NOTEQ) {
+				return 1.0 / 3;
+			}
+		}
+		return op == RelationalOperator.EQ ? equal : 1 - equal;
+	}
+
+	/**
+	 * Estimates the number of rows that satisfy all of the given predicates,
+	 * assuming they are independent
+	 *
+	 * @param predicates
+	 *            the conditions, or null for none
+	 */
+	public double estimateRows(Predicate[] predicates) {
+		double rows = numTuples;
+		if (predicates != null) {
+			for (Predicate p : predicates) {
+				rows *= estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+			}
+		}
+		return rows;
+	}
+}
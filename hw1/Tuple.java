@@ -13,6 +13,9 @@ public class Tuple {
 	private int pid;
 	private int id;
 	private Field[] row;
+	// page this tuple was read from; fields that have not been set are decoded
+	// from it lazily
+	private HeapPage source;
 
 	/**
 	 * Creates a new tuple with the given description
@@ -22,7 +25,7 @@ public class Tuple {
 	 */
 	public Tuple(TupleDesc t) {
 		td = t;
-		row = new Field[td.getSize()];
+		row = new Field[td.numFields()];
 	}
 
 	public TupleDesc getDesc() {
@@ -69,10 +72,56 @@ public class Tuple {
 	 */
 	public void setField(int i, Field v) {
 		row[i] = v;
+		if (source != null) {
+			source.fieldChanged();
+		}
 	}
 
 	public Field getField(int i) {
-		return row[i];
+		Field f = row[i];
+		if (f == null && source != null) {
+			f = source.readField(id, i);
+			row[i] = f;
+		}
+		return f;
+	}
+
+	/**
+	 * @return the dictionary the i-th field is stored with, or null if it is
+	 *         not dictionary encoded
+	 */
+	public StringDictionary getDictionary(int i) {
+		return source == null ? null : source.getDictionary(i);
+	}
+
+	/**
+	 * Returns the dictionary code of the i-th field without decoding the
+	 * string if it has not been read yet. Only valid if getDictionary(i) is
+	 * not null.
+	 */
+	public int getCode(int i) {
+		if (row[i] == null) {
+			return ((IntField) source.decodeField(id, i)).getValue();
+		}
+		return source.getDictionary(i).encode(((StringField) row[i]).getValue());
+	}
+
+	void setSource(HeapPage page) {
+		this.source = page;
+	}
+
+	/**
+	 * @return true if this tuple was read from the given slot of the given page
+	 */
+	boolean isFromSource(HeapPage page, int slotId) {
+		return source == page && id == slotId;
+	}
+
+	/**
+	 * @return true if the i-th field has been set or decoded already
+	 */
+	boolean isFieldLoaded(int i) {
+		return row[i] != null;
 	}
 
 	/**
@@ -83,8 +132,9 @@ public class Tuple {
 	public String toString() {
 		String s = "";
 		for (int i = 0; i < row.length; i++) {
-			if (row[i] != null) {
-				s += "(" + i + ")" + row[i];
+			Field f = getField(i);
+			if (f != null) {
+				s += "(" + i + ")" + f;
 			}
 		}
 		return s;
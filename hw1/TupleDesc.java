@@ -9,6 +9,8 @@ public class TupleDesc {
 
 	private Type[] types;
 	private String[] fields;
+	// byte layout of the fields, built the first time it is needed
+	private RowLayout layout;
 
 	/**
 	 * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -34,6 +36,38 @@ public class TupleDesc {
 		return fields;
 	}
 
+	/**
+	 * Returns the byte layout of tuples with this schema. It is computed once
+	 * and shared by every caller.
+	 *
+	 * @return the layout of the fields of this TupleDesc
+	 */
+	public RowLayout getLayout() {
+		RowLayout l = layout;
+		if (l == null) {
+			l = new RowLayout(types);
+			layout = l;
+		}
+		return l;
+	}
+
+	/**
+	 * Creates a TupleDesc holding only some of the fields of this one
+	 *
+	 * @param fieldNums
+	 *            the field numbers to keep, in the order they should appear
+	 * @return the projected TupleDesc
+	 */
+	public TupleDesc project(int[] fieldNums) {
+		Type[] newTypes = new Type[fieldNums.length];
+		String[] newFields = new String[fieldNums.length];
+		for (int i = 0; i < fieldNums.length; i++) {
+			newTypes[i] = types[fieldNums[i]];
+			newFields[i] = fields[fieldNums[i]];
+		}
+		return new TupleDesc(newTypes, newFields);
+	}
+
 	/**
 	 * @return the number of fields in this TupleDesc
 	 */
@@ -105,11 +139,21 @@ public class TupleDesc {
 	 *         Note that tuples from a given TupleDesc are of a fixed size.
 	 */
 	public int getSize() {
-		int size = 0;
-		for (Type t : types) {
-			size += t == Type.INT ? 4 : 129; // TODO: verify this size
-		}
-		return size;
+		return getLayout().getRowWidth();
+	}
+
+	/**
+	 * @return The size (in bytes) of the i-th field
+	 */
+	public int getFieldSize(int i) {
+		return getLayout().getFieldSize(i);
+	}
+
+	/**
+	 * @return The byte offset of the i-th field from the start of a tuple
+	 */
+	public int getOffset(int i) {
+		return getLayout().getOffset(i);
 	}
 
 	/**
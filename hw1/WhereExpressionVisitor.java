@@ -1,6 +1,9 @@
 package hw1;
 
+import java.util.ArrayList;
+
 import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
 import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
@@ -12,14 +15,18 @@ import net.sf.jsqlparser.schema.Column;
 
 /**
  * Processes where clauses using the visitor pattern
+ *
+ * A clause may be several comparisons joined by AND; each one is kept, in the
+ * order it appears. OR is not supported.
  * @author Doug Shook
  *
  */
 public class WhereExpressionVisitor extends ExpressionVisitorAdapter {
 	
 	private RelationalOperator op;
-	private String left;
-	private Field right;
+	private ArrayList<RelationalOperator> ops = new ArrayList<>();
+	private ArrayList<String> lefts = new ArrayList<>();
+	private ArrayList<Field> rights = new ArrayList<>();
 	
 	@Override
 	public void visit(EqualsTo equalsTo) {
@@ -57,26 +64,51 @@ public class WhereExpressionVisitor extends ExpressionVisitorAdapter {
 		processOps(notEqualsTo);
 	}
 	
+	@Override
+	public void visit(OrExpression orExpression) {
+		throw new UnsupportedOperationException("OR is not supported in where clauses");
+	}
+	
 	private void processOps(ComparisonOperator c) {
-		left = ((Column)c.getLeftExpression()).getColumnName();
+		lefts.add(((Column)c.getLeftExpression()).getColumnName());
+		ops.add(op);
 		String r = c.getRightExpression().toString();
 		
 		try {
-			right = new IntField(Integer.parseInt(r));
+			rights.add(new IntField(Integer.parseInt(r)));
 		} catch (NumberFormatException e) {
-			right = new StringField(r);
+			rights.add(new StringField(r));
 		}
 	}
 	
+	/**
+	 * @return the number of comparisons in the clause, all of which must hold
+	 */
+	public int numConditions() {
+		return ops.size();
+	}
+	
+	public String getLeft(int i) {
+		return lefts.get(i);
+	}
+	
+	public Field getRight(int i) {
+		return rights.get(i);
+	}
+	
+	public RelationalOperator getOp(int i) {
+		return ops.get(i);
+	}
+	
 	public String getLeft() {
-		return left;
+		return lefts.isEmpty() ? null : lefts.get(0);
 	}
 	
 	public Field getRight() {
-		return right;
+		return rights.isEmpty() ? null : rights.get(0);
 	}
 	
 	public RelationalOperator getOp() {
-		return op;
+		return ops.isEmpty() ? null : ops.get(0);
 	}
 }
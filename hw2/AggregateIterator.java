@@ -0,0 +1,157 @@
+package hw2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import hw1.Field;
+import hw1.HeapFile;
+import hw1.Predicate;
+import hw1.RelationalOperator;
+import hw1.Tuple;
+import hw1.TupleDesc;
+
+/**
+ * Aggregates the tuples of its child (see Aggregator). The child must return
+ * one field, or two when grouping. The input is read to the end when the
+ * operator is opened.
+ *
+ * The work is split in two phases. The input is cut into pieces that are each
+ * aggregated on their own on the fork-join pool, and the partial results are
+ * then combined group by group (AVG as a sum and a count) in input order, so
+ * groups come out in the order they are first seen. Pieces are either chunks
+ * of CHUNK_TUPLES tuples read from the child, or, when aggregating a table
+ * directly, ranges of ScanIterator.CHUNK_PAGES pages that each worker reads
+ * itself. Only a few pieces are in flight at a time.
+ */
+public class AggregateIterator implements TupleIterator {
+
+	public static final int CHUNK_TUPLES = 8192;
+	private static final int MAX_PENDING = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+
+	private TupleIterator child;
+	private HeapFile hf;
+	private Predicate[] predicates;
+	private int[] fields;
+	private TupleDesc td;
+
+	private AggregateOperator op;
+	private boolean groupBy;
+	private Iterator<Tuple> results;
+
+	/**
+	 * @param child the operator to read from
+	 * @param op the aggregation operation to be performed
+	 * @param groupBy whether or not a grouping should be performed
+	 */
+	public AggregateIterator(TupleIterator child, AggregateOperator op, boolean groupBy) {
+		this.child = child;
+		this.td = child.getDesc();
+		this.op = op;
+		this.groupBy = groupBy;
+	}
+
+	/**
+	 * Aggregates some fields of the tuples of a file, optionally only those
+	 * that satisfy a comparison (see HeapFile.scanRange)
+	 * @param hf the file to read
+	 * @param field the field number (refer to TupleDesc) to compare
+	 * @param selectOp the comparison operator, or null to aggregate every tuple
+	 * @param operand the constant to compare against
+	 * @param fields the field numbers to aggregate: the value, or the group and the value
+	 * @param op the aggregation operation to be performed
+	 * @param groupBy whether or not a grouping should be performed
+	 */
+	public AggregateIterator(HeapFile hf, int field, RelationalOperator selectOp, Field operand, int[] fields, AggregateOperator op, boolean groupBy) {
+		this(hf, Predicate.of(field, selectOp, operand), fields, op, groupBy);
+	}
+
+	/**
+	 * Aggregates some fields of the tuples of a file that satisfy all of the
+	 * given predicates (see HeapFile.scanRange)
+	 * @param hf the file to read
+	 * @param predicates the predicates to check, or null to aggregate every tuple
+	 * @param fields the field numbers to aggregate: the value, or the group and the value
+	 * @param op the aggregation operation to be performed
+	 * @param groupBy whether or not a grouping should be performed
+	 */
+	public AggregateIterator(HeapFile hf, Predicate[] predicates, int[] fields, AggregateOperator op, boolean groupBy) {
+		this.hf = hf;
+		this.predicates = predicates;
+		this.fields = fields;
+		this.td = hf.getTupleDesc().project(fields);
+		this.op = op;
+		this.groupBy = groupBy;
+	}
+
+	public void open() {
+		Aggregator total = new Aggregator(op, groupBy, td);
+		ArrayDeque<ForkJoinTask<Aggregator>> pending = new ArrayDeque<>();
+		if(hf != null) {
+			for(int from = 0; from < hf.getNumPages(); from += ScanIterator.CHUNK_PAGES) {
+				pending.add(submit(from, Math.min(from + ScanIterator.CHUNK_PAGES, hf.getNumPages()), null));
+				combineOldest(total, pending);
+			}
+		} else {
+			child.open();
+			ArrayList<Tuple> chunk = new ArrayList<>(CHUNK_TUPLES);
+			for(Tuple t = child.next(); t != null; t = child.next()) {
+				chunk.add(t);
+				if(chunk.size() == CHUNK_TUPLES) {
+					pending.add(submit(0, 0, chunk));
+					combineOldest(total, pending);
+					chunk = new ArrayList<>(CHUNK_TUPLES);
+				}
+			}
+			child.close();
+			if(!chunk.isEmpty()) {
+				pending.add(submit(0, 0, chunk));
+			}
+		}
+		while(!pending.isEmpty()) {
+			total.combine(pending.poll().join());
+		}
+		results = total.getResults().iterator();
+	}
+
+	/**
+	 * Combines finished pieces into the total while too many are in flight
+	 */
+	private void combineOldest(Aggregator total, ArrayDeque<ForkJoinTask<Aggregator>> pending) {
+		while(pending.size() > MAX_PENDING) {
+			total.combine(pending.poll().join());
+		}
+	}
+
+	/**
+	 * Starts aggregating a chunk of tuples, or if chunk is null the pages
+	 * [from, to) of the file
+	 */
+	private ForkJoinTask<Aggregator> submit(final int from, final int to, final ArrayList<Tuple> chunk) {
+		return ForkJoinPool.commonPool().submit(new Callable<Aggregator>() {
+			public Aggregator call() {
+				Aggregator partial = new Aggregator(op, groupBy, td);
+				ArrayList<Tuple> tuples = chunk != null ? chunk : hf.scanRange(from, to, predicates, fields);
+				for(Tuple t: tuples) {
+					partial.merge(t);
+				}
+				return partial;
+			}
+		});
+	}
+
+	public Tuple next() {
+		return results.hasNext() ? results.next() : null;
+	}
+
+	public void close() {
+		results = null;
+	}
+
+	public TupleDesc getDesc() {
+		return td;
+	}
+}
@@ -1,15 +1,25 @@
 package hw2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import hw1.Field;
 import hw1.IntField;
+import hw1.StringDictionary;
 import hw1.StringField;
 import hw1.Tuple;
 import hw1.TupleDesc;
+import hw1.Type;
 
 /**
  * A class to perform various aggregations, by accepting one tuple at a time
+ *
+ * Each group keeps a running sum, count, minimum and maximum, so memory grows
+ * with the number of groups and not with the number of tuples. Groups are
+ * found through an open addressing hash table; INT groups (and dictionary
+ * codes) are kept as ints, other groups as Fields. Results come out in the
+ * order their groups were first seen.
  * @author Doug Shook
  *
  */
@@ -17,13 +27,32 @@ public class Aggregator {
 	AggregateOperator op;
 	boolean groupBy;
 	TupleDesc td;
-	ArrayList<Field> groups = new ArrayList<>();
-	ArrayList<ArrayList<Field>> groupedLists = new ArrayList<>();
-	
+
+	//hash table of group numbers plus one; 0 marks a free slot
+	private int[] table = new int[16];
+	//per group, in the order the groups were first seen
+	private int[] hashes = new int[8];
+	private int[] intKeys;
+	private Field[] fieldKeys;
+	private long[] sums = new long[8];
+	private long[] counts = new long[8];
+	private int[] mins = new int[8];
+	private int[] maxs = new int[8];
+	private int numGroups;
+	//STRING values are read as numbers and give STRING results
+	private boolean stringValues;
+	//the dictionary intKeys are codes of, when STRING groups are grouped by code
+	private StringDictionary groupDict;
+
 	public Aggregator(AggregateOperator o, boolean groupBy, TupleDesc td) {
 		this.op = o;
 		this.groupBy = groupBy;
 		this.td = td;
+		if(groupBy && td.getType(0) == Type.STRING) {
+			fieldKeys = new Field[8];
+		} else {
+			intKeys = new int[8];
+		}
 	}
 
 	/**
@@ -31,86 +60,231 @@ public class Aggregator {
 	 * @param t the tuple to be aggregated
 	 */
 	public void merge(Tuple t) {
-		Field group;
-		Field value;
-		if(groupBy) {
-			group = t.getField(0);
-			value = t.getField(1);
+		if(groupDict != null) {
+			throw new IllegalStateException("Aggregator is grouping batches by dictionary code");
+		}
+		int g;
+		if(!groupBy) {
+			g = findGroup(0, null);
+		} else if(intKeys != null) {
+			g = findGroup(((IntField)t.getField(0)).getValue(), null);
 		} else {
-			group = new IntField(0);
-			value = t.getField(0);
+			Field group = t.getField(0);
+			g = findGroup(group.hashCode(), group);
 		}
-		if(!groups.contains(group)) {
-			groups.add(group);
-			groupedLists.add(new ArrayList<Field>());
+		accumulate(g, value(t.getField(groupBy ? 1 : 0)));
+	}
+
+	private int value(Field f) {
+		if(f.getClass() == IntField.class) {
+			return ((IntField)f).getValue();
+		}
+		stringValues = true;
+		try {
+			return Integer.parseInt(((StringField)f).getValue());
+		} catch(NumberFormatException e) {
+			return 0;
 		}
-		groupedLists.get(groups.indexOf(group)).add(value);
 	}
-	
+
+	private static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
 	/**
-	 * Returns the result of the aggregation
-	 * @return a list containing the tuples after aggregation
+	 * Returns the number of the group with the given key, adding the group if
+	 * it is new
+	 * @param hash the int key, or the hash code of fieldKey
+	 * @param fieldKey the key of a group that is not kept as an int, or null
 	 */
-	public ArrayList<Tuple> getResults() {
-		ArrayList<Field> resultList = new ArrayList<>();;
-		for(ArrayList<Field> fields: groupedLists) {
-			Integer result = null;
-			for(Field f: fields) {
-				int value = 0;
-				if(f.getClass() == IntField.class) {
-					value = ((IntField)f).getValue();
-				} else if(f.getClass() == StringField.class) {
-					String s = ((StringField)f).getValue();
-					try {
-						value = Integer.parseInt(s);
-					}
-					catch(NumberFormatException e) {
-					}
-				} 
-				if(result == null) {
-					if(op == AggregateOperator.MAX || op == AggregateOperator.MIN) {
-						result = value;
-					} else {
-						result = 0;
-					}
-				}
-				switch(op) {
-				case MAX:
-					result = value > result ? value : result;
-					break;
-				case MIN:
-					result = value < result ? value : result;
-					break;
-				case COUNT:
-					result++;
-					break;
-				case SUM:
-				case AVG:
-					result += value;
+	private int findGroup(int hash, Field fieldKey) {
+		int mask = table.length - 1;
+		int i = mix(hash) & mask;
+		while(true) {
+			int g = table[i] - 1;
+			if(g < 0) {
+				g = addGroup(hash, fieldKey);
+				table[i] = g + 1;
+				if(numGroups * 2 > table.length) {
+					grow();
 				}
+				return g;
 			}
-			if(op == AggregateOperator.AVG) {
-				result /= fields.size();
+			if(hashes[g] == hash && (fieldKeys == null || fieldKeys[g].equals(fieldKey))) {
+				return g;
 			}
-			Field newField;
-			if(fields.get(0).getClass() == IntField.class) {
-				newField = new IntField(result);
+			i = (i + 1) & mask;
+		}
+	}
+
+	private int addGroup(int hash, Field fieldKey) {
+		if(numGroups == hashes.length) {
+			int n = numGroups * 2;
+			hashes = Arrays.copyOf(hashes, n);
+			if(intKeys != null) {
+				intKeys = Arrays.copyOf(intKeys, n);
 			} else {
-				newField = new StringField(String.valueOf(result));
+				fieldKeys = Arrays.copyOf(fieldKeys, n);
 			}
-			resultList.add(newField);
+			sums = Arrays.copyOf(sums, n);
+			counts = Arrays.copyOf(counts, n);
+			mins = Arrays.copyOf(mins, n);
+			maxs = Arrays.copyOf(maxs, n);
 		}
-		ArrayList<Tuple> newTuples = new ArrayList<>();
-		for(int i = 0; i < groups.size(); i++) {
-			Tuple newTuple = new Tuple(td);
-			if(groupedLists.get(0).get(0).getClass() == IntField.class) {
-				
+		int g = numGroups++;
+		hashes[g] = hash;
+		if(intKeys != null) {
+			intKeys[g] = hash;
+		} else {
+			fieldKeys[g] = fieldKey;
+		}
+		return g;
+	}
+
+	private void grow() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for(int g = 0; g < numGroups; g++) {
+			int i = mix(hashes[g]) & mask;
+			while(table[i] != 0) {
+				i = (i + 1) & mask;
 			}
+			table[i] = g + 1;
+		}
+	}
+
+	private void accumulate(int g, int value) {
+		if(counts[g] == 0) {
+			mins[g] = value;
+			maxs[g] = value;
+		} else {
+			mins[g] = value < mins[g] ? value : mins[g];
+			maxs[g] = value > maxs[g] ? value : maxs[g];
+		}
+		sums[g] += value;
+		counts[g]++;
+	}
+
+	/**
+	 * Merges whole batches at once and returns the results. Values are read
+	 * from the batches' columns, and dictionary encoded groups shared by all
+	 * batches are told apart by their codes. Use either this or merge on an
+	 * Aggregator, not both.
+	 * @param batches the rows to be aggregated
+	 * @return a list containing the tuples after aggregation
+	 */
+	public ArrayList<Tuple> aggregate(List<TupleBatch> batches) {
+		if(groupBy && fieldKeys != null && numGroups == 0) {
+			groupByCodes(TupleBatch.commonDictionary(batches, 0));
+		}
+		mergeBatches(batches, 0, batches.size());
+		return getResults();
+	}
+	
+	/**
+	 * Makes STRING groups be told apart by their codes in the given
+	 * dictionary. Must be called before anything is merged.
+	 * @param dict the dictionary of the group column, or null to group by value
+	 */
+	void groupByCodes(StringDictionary dict) {
+		if(dict != null) {
+			groupDict = dict;
+			fieldKeys = null;
+			intKeys = new int[hashes.length];
+		}
+	}
+	
+	/**
+	 * Merges batches [from, to) into the current aggregation
+	 */
+	void mergeBatches(List<TupleBatch> batches, int from, int to) {
+		int valueField = groupBy ? 1 : 0;
+		boolean intValues = td.getType(valueField) == Type.INT;
+		for(int j = from; j < to; j++) {
+			TupleBatch b = batches.get(j);
+			int[] values = intValues ? b.getIntColumn(valueField) : null;
+			int[] groupInts = !groupBy ? null : groupDict != null ? b.getCodes(0) : intKeys != null ? b.getIntColumn(0) : null;
+			for(int i = 0; i < b.size(); i++) {
+				int r = b.row(i);
+				int g;
+				if(!groupBy) {
+					g = findGroup(0, null);
+				} else if(groupInts != null) {
+					g = findGroup(groupInts[r], null);
+				} else {
+					Field group = b.getField(0, r);
+					g = findGroup(group.hashCode(), group);
+				}
+				accumulate(g, intValues ? values[r] : value(b.getField(valueField, r)));
+			}
+		}
+	}
+	
+	/**
+	 * Adds the partial results of another Aggregator to this one, as if every
+	 * tuple merged into it had been merged here afterwards. Both must group the
+	 * same way, and by the same dictionary if by codes.
+	 * @param other the partial aggregation to add
+	 */
+	public void combine(Aggregator other) {
+		if(other.groupDict != groupDict) {
+			throw new IllegalArgumentException("Aggregators group by different dictionaries");
+		}
+		stringValues |= other.stringValues;
+		for(int og = 0; og < other.numGroups; og++) {
+			int g = findGroup(other.hashes[og], other.fieldKeys == null ? null : other.fieldKeys[og]);
+			if(counts[g] == 0) {
+				mins[g] = other.mins[og];
+				maxs[g] = other.maxs[og];
+			} else {
+				mins[g] = other.mins[og] < mins[g] ? other.mins[og] : mins[g];
+				maxs[g] = other.maxs[og] > maxs[g] ? other.maxs[og] : maxs[g];
+			}
+			sums[g] += other.sums[og];
+			counts[g] += other.counts[og];
+		}
+	}
+
+	/**
+	 * Returns the result of the aggregation
+	 * @return a list containing the tuples after aggregation
+	 */
+	public ArrayList<Tuple> getResults() {
+		ArrayList<Tuple> newTuples = new ArrayList<>(numGroups);
+		for(int g = 0; g < numGroups; g++) {
+			long result;
+			switch(op) {
+			case MAX:
+				result = maxs[g];
+				break;
+			case MIN:
+				result = mins[g];
+				break;
+			case COUNT:
+				result = counts[g];
+				break;
+			case AVG:
+				result = sums[g] / counts[g];
+				break;
+			default:
+				result = sums[g];
+			}
+			Field newField = stringValues ? new StringField(String.valueOf((int)result)) : new IntField((int)result);
+			Tuple newTuple = new Tuple(td);
 			if(groupBy) {
-				newTuple.setField(0, groups.get(i));
-				newTuple.setField(1, resultList.get(i));
+				Field group;
+				if(fieldKeys != null) {
+					group = fieldKeys[g];
+				} else if(groupDict != null) {
+					group = new StringField(groupDict.decode(intKeys[g]));
+				} else {
+					group = new IntField(intKeys[g]);
+				}
+				newTuple.setField(0, group);
+				newTuple.setField(1, newField);
 			} else {
-				newTuple.setField(0, resultList.get(i));
+				newTuple.setField(0, newField);
 			}
 			newTuples.add(newTuple);
 		}
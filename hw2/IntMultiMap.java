@@ -0,0 +1,140 @@
+package hw2;
+
+import java.util.Arrays;
+
+/**
+ * A hash table from int keys to long values that allows several values per
+ * key, used to build hash joins. Keys are kept in open addressing arrays
+ * rather than as boxed objects, and the values of a key are chained in the
+ * order they were added.
+ *
+ * Walking the values of a key:
+ * <pre>
+ * for(int e = map.first(key); e >= 0; e = map.next(e)) ... map.value(e)
+ * </pre>
+ */
+public class IntMultiMap {
+
+	private int[] keys;
+	//per table slot, the first and last entry of the key's chain, or -1 if the slot is free
+	private int[] heads;
+	private int[] tails;
+	private int mask;
+	private int numKeys;
+
+	//entries in the order they were added
+	private long[] values;
+	private int[] nexts;
+	private int size;
+
+	/**
+	 * @param expected the number of values expected, used to size the table
+	 */
+	public IntMultiMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+		keys = new int[capacity];
+		heads = new int[capacity];
+		tails = new int[capacity];
+		Arrays.fill(heads, -1);
+		mask = capacity - 1;
+		values = new long[Math.max(expected, 8)];
+		nexts = new int[values.length];
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return the table slot holding key, or the free slot where it would go
+	 */
+	private int slot(int key) {
+		int i = hash(key) & mask;
+		while(heads[i] >= 0 && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Adds a value under the given key, after the values already there
+	 */
+	public void put(int key, long value) {
+		if(size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+			nexts = Arrays.copyOf(nexts, size * 2);
+		}
+		values[size] = value;
+		nexts[size] = -1;
+		int i = slot(key);
+		if(heads[i] < 0) {
+			keys[i] = key;
+			heads[i] = size;
+			numKeys++;
+		} else {
+			nexts[tails[i]] = size;
+		}
+		tails[i] = size;
+		size++;
+		if(numKeys * 2 > keys.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldHeads = heads;
+		int[] oldTails = tails;
+		keys = new int[oldKeys.length * 2];
+		heads = new int[keys.length];
+		tails = new int[keys.length];
+		Arrays.fill(heads, -1);
+		mask = keys.length - 1;
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldHeads[j] >= 0) {
+				int i = slot(oldKeys[j]);
+				keys[i] = oldKeys[j];
+				heads[i] = oldHeads[j];
+				tails[i] = oldTails[j];
+			}
+		}
+	}
+
+	/**
+	 * @return the first entry under the given key, or -1 if there is none
+	 */
+	public int first(int key) {
+		return heads[slot(key)];
+	}
+
+	/**
+	 * @return the entry after the given one under the same key, or -1
+	 */
+	public int next(int entry) {
+		return nexts[entry];
+	}
+
+	/**
+	 * @return the value of an entry
+	 */
+	public long value(int entry) {
+		return values[entry];
+	}
+
+	/**
+	 * @return the number of values in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes every entry, keeping the allocated space
+	 */
+	public void clear() {
+		Arrays.fill(heads, -1);
+		numKeys = 0;
+		size = 0;
+	}
+}
@@ -0,0 +1,147 @@
+package hw2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import hw1.Field;
+import hw1.IntField;
+import hw1.Tuple;
+import hw1.TupleDesc;
+import hw1.Type;
+
+/**
+ * Joins the tuples of two operators on the equality of one field from each.
+ * The left side is read in blocks of BLOCK_TUPLES, each put in a hash table on
+ * its join field; the right side is read once per block and each of its tuples
+ * looks up its matches in the table. Only one block is held at a time, however
+ * large the inputs are, and a left side that fits in one block is joined in a
+ * single pass over each input.
+ *
+ * INT join fields are hashed on their values and need no further comparison;
+ * other fields are hashed on their hash codes and compared on a hit.
+ */
+public class JoinIterator implements TupleIterator {
+
+	public static final int BLOCK_TUPLES = 1 << 16;
+
+	private TupleIterator left;
+	private TupleIterator right;
+	private int field1;
+	private int field2;
+	private TupleDesc td;
+	private boolean intKeys;
+
+	private ArrayList<Tuple> block = new ArrayList<>();
+	private Field[] blockKeys = new Field[BLOCK_TUPLES];
+	private IntMultiMap table = new IntMultiMap(BLOCK_TUPLES);
+	private Tuple rightTuple;
+	private Field rightKey;
+	//the next entry of the table to check against rightTuple, or -1
+	private int entry;
+
+	/**
+	 * @param left the left side of the join
+	 * @param right the right side of the join
+	 * @param field1 the field number (refer to TupleDesc) from left to be used in the join condition
+	 * @param field2 the field number (refer to TupleDesc) from right to be used in the join condition
+	 */
+	public JoinIterator(TupleIterator left, TupleIterator right, int field1, int field2) {
+		this.left = left;
+		this.right = right;
+		this.field1 = field1;
+		this.field2 = field2;
+		String[] fields1 = left.getDesc().getFields();
+		String[] fields2 = right.getDesc().getFields();
+		Type[] types1 = left.getDesc().getTypes();
+		Type[] types2 = right.getDesc().getTypes();
+		String[] fields = Arrays.copyOf(fields1, fields1.length + fields2.length);
+		System.arraycopy(fields2, 0, fields, fields1.length, fields2.length);
+		Type[] types = Arrays.copyOf(types1, types1.length + types2.length);
+		System.arraycopy(types2, 0, types, types1.length, types2.length);
+		this.td = new TupleDesc(types, fields);
+		this.intKeys = types1[field1] == Type.INT && types2[field2] == Type.INT;
+	}
+
+	private int hash(Field f) {
+		return intKeys ? ((IntField)f).getValue() : f.hashCode();
+	}
+
+	public void open() {
+		left.open();
+		fillBlock();
+		if(block.size() > 0) {
+			right.open();
+		}
+	}
+
+	/**
+	 * Reads the next block of the left side
+	 */
+	private void fillBlock() {
+		block.clear();
+		table.clear();
+		for(Tuple t = left.next(); t != null; t = left.next()) {
+			Field key = t.getField(field1);
+			blockKeys[block.size()] = key;
+			table.put(hash(key), block.size());
+			block.add(t);
+			if(block.size() == BLOCK_TUPLES) {
+				break;
+			}
+		}
+		rightTuple = null;
+		entry = -1;
+	}
+
+	public Tuple next() {
+		while(block.size() > 0) {
+			while(entry >= 0) {
+				int i = (int)table.value(entry);
+				entry = table.next(entry);
+				if(intKeys || blockKeys[i].equals(rightKey)) {
+					return joined(block.get(i), rightTuple);
+				}
+			}
+			rightTuple = right.next();
+			if(rightTuple != null) {
+				rightKey = rightTuple.getField(field2);
+				entry = table.first(hash(rightKey));
+				continue;
+			}
+			//the right side is used up: start it again for the next block
+			right.close();
+			fillBlock();
+			if(block.size() > 0) {
+				right.open();
+			}
+		}
+		return null;
+	}
+
+	private Tuple joined(Tuple t1, Tuple t2) {
+		int n1 = left.getDesc().numFields();
+		Tuple t = new Tuple(td);
+		for(int i = 0; i < n1; i++) {
+			t.setField(i, t1.getField(i));
+		}
+		for(int i = 0; i < td.numFields() - n1; i++) {
+			t.setField(n1 + i, t2.getField(i));
+		}
+		return t;
+	}
+
+	public void close() {
+		if(block.size() > 0) {
+			right.close();
+		}
+		left.close();
+		block.clear();
+		Arrays.fill(blockKeys, null);
+		table.clear();
+		rightTuple = null;
+	}
+
+	public TupleDesc getDesc() {
+		return td;
+	}
+}
@@ -0,0 +1,200 @@
+package hw2;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import hw1.Catalog;
+import hw1.HeapFile;
+import hw1.Predicate;
+import hw1.TableStats;
+import net.sf.jsqlparser.schema.Column;
+
+/**
+ * Chooses the order in which the tables of a query are joined, using their
+ * statistics (see TableStats) rather than the order they were written in.
+ *
+ * Each table's row count is estimated after its own conditions. The planner
+ * then works greedily: it starts with the join expected to give the fewest
+ * rows, and keeps adding the table whose join with the tables so far is
+ * expected to give the fewest rows. The result of an equi-join is estimated
+ * as the product of the inputs divided by the larger number of distinct join
+ * values. The smaller input of each join is put on the left, where
+ * JoinIterator builds its hash table.
+ *
+ * The columns of the result are put back in the order the tables were
+ * written, so the order chosen does not show in the output.
+ */
+public class JoinPlanner {
+
+	private Catalog catalog;
+	private ArrayList<HeapFile> files = new ArrayList<>();
+	private ArrayList<String[]> names = new ArrayList<>();
+	private ArrayList<TupleIterator> scans = new ArrayList<>();
+	private ArrayList<Double> rows = new ArrayList<>();
+	//each join condition: table, field, table, field
+	private ArrayList<int[]> joins = new ArrayList<>();
+
+	/**
+	 * @param catalog the catalog the statistics of the tables are kept in
+	 */
+	public JoinPlanner(Catalog catalog) {
+		this.catalog = catalog;
+	}
+
+	/**
+	 * Adds the next table of the FROM list
+	 * @param hf the table's file
+	 * @param names the names the query may refer to the table by: its name and alias
+	 * @param scan the operator that reads the table
+	 * @param predicates the conditions the scan checks, or null
+	 */
+	public void addTable(HeapFile hf, String[] names, TupleIterator scan, Predicate[] predicates) {
+		files.add(hf);
+		this.names.add(names);
+		scans.add(scan);
+		//a table never analyzed, or much changed since, is read in full here
+		//(see Catalog.getTableStats); call Catalog.analyze ahead of time to
+		//keep that out of planning
+		TableStats stats = catalog.getTableStats(hf.getId());
+		rows.add(Math.max(1, stats.estimateRows(predicates)));
+	}
+
+	/**
+	 * Adds the condition of the JOIN of the last table added. A column named
+	 * with a table goes to that table; otherwise the left column is the first
+	 * earlier table with a column of that name and the right column is the
+	 * last table added.
+	 * @param left the left side of the ON equality
+	 * @param right the right side of the ON equality
+	 */
+	public void addJoin(Column left, Column right) {
+		int last = files.size() - 1;
+		int t1 = resolve(left, 0, last);
+		int t2 = resolve(right, last, last + 1);
+		int f1 = files.get(t1).getTupleDesc().nameToId(left.getColumnName());
+		int f2 = files.get(t2).getTupleDesc().nameToId(right.getColumnName());
+		if(t1 == t2) {
+			throw new UnsupportedOperationException("A join must compare columns of two tables: " + left + " = " + right);
+		}
+		joins.add(new int[] {t1, f1, t2, f2});
+	}
+
+	/**
+	 * Returns the table a column belongs to: the one it is named with, or the
+	 * first of tables [from, to) that has it
+	 */
+	private int resolve(Column column, int from, int to) {
+		String table = column.getTable() == null ? null : column.getTable().getName();
+		if(table != null) {
+			for(int i = 0; i < names.size(); i++) {
+				for(String name: names.get(i)) {
+					if(table.equalsIgnoreCase(name)) {
+						return i;
+					}
+				}
+			}
+		}
+		for(int i = from; i < to; i++) {
+			try {
+				files.get(i).getTupleDesc().nameToId(column.getColumnName());
+				return i;
+			} catch(NoSuchElementException e) {
+			}
+		}
+		throw new NoSuchElementException("No table has a column named " + column.getColumnName());
+	}
+
+	private double distinct(int table, int field, double maxRows) {
+		int d = catalog.getTableStats(files.get(table).getId()).getNumDistinct(field);
+		return Math.max(1, Math.min(d, maxRows));
+	}
+
+	/**
+	 * Builds the joins in the chosen order
+	 * @return the operator returning the joined rows, with the columns of the
+	 * tables in the order they were added
+	 */
+	public TupleIterator plan() {
+		int n = files.size();
+		if(n == 1) {
+			return scans.get(0);
+		}
+		//the tables joined so far, in the order their columns appear
+		ArrayList<Integer> order = new ArrayList<>();
+		boolean[] joined = new boolean[n];
+		TupleIterator plan = null;
+		double size = 0;
+		while(order.size() < n) {
+			int[] best = null;
+			boolean bestFlipped = false;
+			double bestSize = Double.MAX_VALUE;
+			for(int[] join: joins) {
+				for(boolean flipped: new boolean[] {false, true}) {
+					int inside = flipped ? join[2] : join[0];
+					int outside = flipped ? join[0] : join[2];
+					int insideField = flipped ? join[3] : join[1];
+					int outsideField = flipped ? join[1] : join[3];
+					if(joined[outside] || (plan != null && !joined[inside])) {
+						continue;
+					}
+					double insideRows = plan != null ? size : rows.get(inside);
+					double estimate = insideRows * rows.get(outside)
+							/ Math.max(distinct(inside, insideField, insideRows), distinct(outside, outsideField, rows.get(outside)));
+					if(estimate < bestSize) {
+						best = join;
+						bestFlipped = flipped;
+						bestSize = estimate;
+					}
+				}
+			}
+			if(best == null) {
+				throw new UnsupportedOperationException("Every table must be joined to the others on a column");
+			}
+			int inside = bestFlipped ? best[2] : best[0];
+			int outside = bestFlipped ? best[0] : best[2];
+			int insideField = bestFlipped ? best[3] : best[1];
+			int outsideField = bestFlipped ? best[1] : best[3];
+			if(plan == null) {
+				plan = scans.get(inside);
+				size = rows.get(inside);
+				order.add(inside);
+				joined[inside] = true;
+			}
+			int planField = offset(order, inside) + insideField;
+			TupleIterator scan = scans.get(outside);
+			if(rows.get(outside) < size) {
+				plan = new JoinIterator(scan, plan, outsideField, planField);
+				order.add(0, outside);
+			} else {
+				plan = new JoinIterator(plan, scan, planField, outsideField);
+				order.add(outside);
+			}
+			joined[outside] = true;
+			size = Math.max(1, bestSize);
+		}
+		//put the columns back in the order of the FROM list
+		int[] fields = new int[plan.getDesc().numFields()];
+		int k = 0;
+		for(int i = 0; i < n; i++) {
+			int start = offset(order, i);
+			for(int j = 0; j < files.get(i).getTupleDesc().numFields(); j++) {
+				fields[k++] = start + j;
+			}
+		}
+		return new ProjectIterator(plan, fields);
+	}
+
+	/**
+	 * Returns where the columns of a table start in the joined rows
+	 */
+	private int offset(ArrayList<Integer> order, int table) {
+		int offset = 0;
+		for(int i: order) {
+			if(i == table) {
+				return offset;
+			}
+			offset += files.get(i).getTupleDesc().numFields();
+		}
+		throw new IllegalStateException("Table " + table + " is not joined yet");
+	}
+}
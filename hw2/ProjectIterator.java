@@ -0,0 +1,67 @@
+package hw2;
+
+import hw1.Tuple;
+import hw1.TupleDesc;
+
+/**
+ * Returns the given fields of each tuple of its child. Only those fields of
+ * the child's tuples are read.
+ */
+public class ProjectIterator implements TupleIterator {
+
+	private TupleIterator child;
+	private int[] fields;
+	private TupleDesc td;
+	//whether the projection keeps every field in order, so tuples can be passed on as they are
+	private boolean identity;
+
+	/**
+	 * @param child the operator to read from
+	 * @param fields the field numbers (refer to TupleDesc) that should be in the result
+	 */
+	public ProjectIterator(TupleIterator child, int[] fields) {
+		this.child = child;
+		this.fields = fields;
+		this.td = child.getDesc().project(fields);
+		this.identity = isIdentity(fields, child.getDesc().numFields());
+	}
+
+	/**
+	 * @return whether projecting a tuple of numFields fields on fields keeps all of them in order
+	 */
+	static boolean isIdentity(int[] fields, int numFields) {
+		if(fields.length != numFields) {
+			return false;
+		}
+		for(int i = 0; i < fields.length; i++) {
+			if(fields[i] != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void open() {
+		child.open();
+	}
+
+	public Tuple next() {
+		Tuple t = child.next();
+		if(t == null || identity) {
+			return t;
+		}
+		Tuple projected = new Tuple(td);
+		for(int i = 0; i < fields.length; i++) {
+			projected.setField(i, t.getField(fields[i]));
+		}
+		return projected;
+	}
+
+	public void close() {
+		child.close();
+	}
+
+	public TupleDesc getDesc() {
+		return td;
+	}
+}
@@ -2,13 +2,17 @@ package hw2;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import hw1.Catalog;
 import hw1.Database;
 import hw1.HeapFile;
+import hw1.Predicate;
 import hw1.RelationalOperator;
+import hw1.Tuple;
+import hw1.TupleDesc;
 import hw1.WhereExpressionVisitor;
-import hw1.Field;
+import hw3.Index;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Alias;
 import net.sf.jsqlparser.expression.BinaryExpression;
@@ -19,6 +23,7 @@ import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.*;
 import net.sf.jsqlparser.statement.select.FromItem;
 import net.sf.jsqlparser.statement.select.Join;
+import net.sf.jsqlparser.statement.select.OrderByElement;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
 import net.sf.jsqlparser.statement.select.SelectExpressionItem;
@@ -32,14 +37,161 @@ public class Query {
 		this.q = q;
 	}
 	
-	private Relation fromItemToRelation(Catalog c, FromItem fromItem) {
+	private HeapFile fromItemToFile(Catalog c, FromItem fromItem) {
 		String tableName = ((Table)fromItem).getName();
-		HeapFile heapFile = c.getDbFile(c.getTableId(tableName));
-		Relation newRelation = new Relation(heapFile.getAllTuples(), heapFile.getTupleDesc());
-		return newRelation;
+		return c.getDbFile(c.getTableId(tableName));
 	}
 	
+	/**
+	 * Returns the names a table in the FROM list can be referred to by
+	 */
+	private static String[] tableNames(FromItem fromItem) {
+		Alias alias = fromItem.getAlias();
+		String name = ((Table)fromItem).getName();
+		return alias == null ? new String[] {name} : new String[] {name, alias.getName()};
+	}
+	
+	/**
+	 * Returns the field numbers of the given table that the select list and
+	 * the ORDER BY columns refer to, in table order, or null if it needs all
+	 * of them
+	 */
+	private static int[] selectedFields(TupleDesc td, List<SelectItem> selectItems, List<OrderByElement> orderBy) {
+		boolean[] used = new boolean[td.numFields()];
+		int count = 0;
+		for(SelectItem si: selectItems) {
+			ColumnVisitor columnVisitor = new ColumnVisitor();
+			si.accept(columnVisitor);
+			String columnName = columnVisitor.getColumn();
+			if(columnName.equals("*")) {
+				return null;
+			}
+			int columnNum;
+			try {
+				columnNum = td.nameToId(columnName);
+			} catch(NoSuchElementException e) {
+				return null;
+			}
+			if(!used[columnNum]) {
+				used[columnNum] = true;
+				count++;
+			}
+		}
+		if(orderBy != null) {
+			for(OrderByElement e: orderBy) {
+				//anything else names a column of the result, such as an alias
+				if(!(e.getExpression() instanceof Column)) {
+					continue;
+				}
+				try {
+					int columnNum = td.nameToId(((Column)e.getExpression()).getColumnName());
+					if(!used[columnNum]) {
+						used[columnNum] = true;
+						count++;
+					}
+				} catch(NoSuchElementException ex) {
+				}
+			}
+		}
+		if(count == td.numFields()) {
+			return null;
+		}
+		int[] fields = new int[count];
+		int n = 0;
+		for(int i = 0; i < used.length; i++) {
+			if(used[i]) {
+				fields[n++] = i;
+			}
+		}
+		return fields;
+	}
+	
+	/**
+	 * Splits the conditions of a where clause by the table they refer to, so
+	 * each one can be checked on that table's pages while it is scanned. A
+	 * condition goes to the first of the tables with a column of that name.
+	 * @return for each table, its conditions, or null if it has none
+	 */
+	private static Predicate[][] pushDown(WhereExpressionVisitor where, List<HeapFile> files) {
+		ArrayList<ArrayList<Predicate>> pushed = new ArrayList<>();
+		for(int j = 0; j < files.size(); j++) {
+			pushed.add(new ArrayList<Predicate>());
+		}
+		for(int i = 0; i < where.numConditions(); i++) {
+			String columnName = where.getLeft(i);
+			int j = 0;
+			int columnNum = -1;
+			for(; j < files.size() && columnNum < 0; j++) {
+				try {
+					columnNum = files.get(j).getTupleDesc().nameToId(columnName);
+				} catch(NoSuchElementException e) {
+				}
+			}
+			if(columnNum < 0) {
+				throw new NoSuchElementException("No table has a column named " + columnName);
+			}
+			pushed.get(j - 1).add(new Predicate(columnNum, where.getOp(i), where.getRight(i)));
+		}
+		Predicate[][] predicates = new Predicate[files.size()][];
+		for(int j = 0; j < files.size(); j++) {
+			if(!pushed.get(j).isEmpty()) {
+				predicates[j] = pushed.get(j).toArray(new Predicate[0]);
+			}
+		}
+		return predicates;
+	}
+	
+	/**
+	 * Looks up the pages of a table that can hold rows satisfying its
+	 * conditions in an index on one of the compared columns, preferring a
+	 * column compared for equality
+	 * @return the page numbers, or null if no index applies and every page
+	 * must be read
+	 */
+	private static int[] indexedPages(Catalog c, HeapFile hf, Predicate[] predicates) {
+		if(predicates == null) {
+			return null;
+		}
+		for(boolean equality: new boolean[] {true, false}) {
+			for(Predicate p: predicates) {
+				if((p.getOp() == RelationalOperator.EQ) != equality) {
+					continue;
+				}
+				Index index = c.getIndex(hf.getId(), p.getField());
+				int[] pages = index == null ? null : index.lookup(predicates);
+				if(pages != null) {
+					return pages;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Runs the query and collects its result. A query that only scans one
+	 * table is read in one go, with its pages split over several threads (see
+	 * ScanIterator.readAll).
+	 */
 	public Relation execute()  {
+		TupleIterator plan = plan();
+		if(plan instanceof ScanIterator) {
+			return new Relation(((ScanIterator)plan).readAll(), plan.getDesc());
+		}
+		ArrayList<Tuple> tuples = new ArrayList<>();
+		plan.open();
+		for(Tuple t = plan.next(); t != null; t = plan.next()) {
+			tuples.add(t);
+		}
+		plan.close();
+		return new Relation(tuples, plan.getDesc());
+	}
+	
+	/**
+	 * Builds the operators that compute the query. Rows are pulled through them
+	 * one at a time, so only joins and aggregates hold more than a few tuples.
+	 * @return the top operator, not yet opened
+	 */
+	public TupleIterator plan() {
 		Statement statement = null;
 		try {
 			statement = CCJSqlParserUtil.parse(q);
@@ -51,30 +203,49 @@ public class Query {
 		PlainSelect plainSelect = (PlainSelect)selectStatement.getSelectBody();
 		//join relations
 		Catalog c = Database.getCatalog();
-		Relation resultRelation = fromItemToRelation(c, plainSelect.getFromItem());
 		List<Join> joins = plainSelect.getJoins();
+		Expression whereExpression = plainSelect.getWhere();
+		HeapFile heapFile = fromItemToFile(c, plainSelect.getFromItem());
+		ArrayList<HeapFile> files = new ArrayList<>();
+		files.add(heapFile);
 		if(joins != null) {
 			for(Join join: joins) {
-				Relation joinRelation = fromItemToRelation(c, join.getRightItem());
-				BinaryExpression onExpression = (BinaryExpression)join.getOnExpression();
-				String fieldName1 = ((Column)onExpression.getLeftExpression()).getColumnName();
-				String fieldName2 = ((Column)onExpression.getRightExpression()).getColumnName();
-				
-				int fieldNum1 = resultRelation.getTupleDesc().nameToId(fieldName1);
-				int fieldNum2 = joinRelation.getTupleDesc().nameToId(fieldName2);
-				resultRelation = resultRelation.join(joinRelation, fieldNum1, fieldNum2);
+				files.add(fromItemToFile(c, join.getRightItem()));
 			}
 		}
-		//apply where conditions
-		Expression whereExpression = plainSelect.getWhere();
+		//apply where conditions: each is tested on the pages of its table
+		//while it is scanned, so only matching rows are ever decoded
+		Predicate[][] predicates = new Predicate[files.size()][];
 		if(whereExpression != null) {
 			WhereExpressionVisitor whereExpressionVisitor = new WhereExpressionVisitor();
 			whereExpression.accept(whereExpressionVisitor);
-			String fieldName = whereExpressionVisitor.getLeft();
-			RelationalOperator op = whereExpressionVisitor.getOp();
-			Field operand = whereExpressionVisitor.getRight();
-			int fieldNum = resultRelation.getTupleDesc().nameToId(fieldName);
-			resultRelation = resultRelation.select(fieldNum, op, operand);
+			predicates = pushDown(whereExpressionVisitor, files);
+		}
+		TupleIterator plan;
+		//the columns the scan of a single table decodes, and the pages it
+		//reads if an index narrows them down
+		int[] scanFields = null;
+		int[] scanPages = null;
+		if(joins == null) {
+			//a single table: decode only the columns the query selects
+			TupleDesc td = heapFile.getTupleDesc();
+			scanFields = selectedFields(td, plainSelect.getSelectItems(), plainSelect.getOrderByElements());
+			scanPages = indexedPages(c, heapFile, predicates[0]);
+			plan = new ScanIterator(heapFile, scanPages, predicates[0], scanFields);
+		} else {
+			//join in the order the tables' statistics suggest
+			JoinPlanner planner = new JoinPlanner(c);
+			planner.addTable(heapFile, tableNames(plainSelect.getFromItem()),
+					new ScanIterator(heapFile, indexedPages(c, heapFile, predicates[0]), predicates[0], null), predicates[0]);
+			for(int j = 0; j < joins.size(); j++) {
+				Join join = joins.get(j);
+				HeapFile joinFile = files.get(j + 1);
+				planner.addTable(joinFile, tableNames(join.getRightItem()),
+						new ScanIterator(joinFile, indexedPages(c, joinFile, predicates[j + 1]), predicates[j + 1], null), predicates[j + 1]);
+				BinaryExpression onExpression = (BinaryExpression)join.getOnExpression();
+				planner.addJoin((Column)onExpression.getLeftExpression(), (Column)onExpression.getRightExpression());
+			}
+			plan = planner.plan();
 		}
 		//select columns
 		List<SelectItem> selectItems = plainSelect.getSelectItems();
@@ -88,11 +259,11 @@ public class Query {
 			si.accept(columnVisitor);
 			String columnName = columnVisitor.getColumn();
 			if(columnName == "*") {
-				for(int i = 0; i < resultRelation.getDesc().numFields(); i++) {
+				for(int i = 0; i < plan.getDesc().numFields(); i++) {
 					columnNums.add(i);
 				}
 			} else {
-				int columnNum = resultRelation.getDesc().nameToId(columnName);
+				int columnNum = plan.getDesc().nameToId(columnName);
 				columnNums.add(columnNum);
 				if(columnVisitor.isAggregate()) {
 					isAggregate = true;
@@ -100,19 +271,87 @@ public class Query {
 				}
 				Alias alias = ((SelectExpressionItem)si).getAlias();
 				if(alias != null && alias.isUseAs()) {
-					renameNums.add(columnNum);
+					//position of the column after the projection
+					renameNums.add(columnNums.size() - 1);
 					renameNames.add(alias.getName());
 				}
 			}
 		}
-		resultRelation = resultRelation.project(columnNums);
-		if(isAggregate) {
-			boolean groupBy = columnNums.size() == 2;
-			resultRelation = resultRelation.aggregate(op, groupBy);
+		int[] projection = new int[columnNums.size()];
+		for(int i = 0; i < projection.length; i++) {
+			projection[i] = columnNums.get(i);
+		}
+		TupleIterator beforeProject = plan;
+		if(isAggregate && joins == null && scanPages == null) {
+			//aggregate a single table straight from its pages, each worker
+			//reading its own range of them
+			int[] tableFields = new int[projection.length];
+			for(int i = 0; i < projection.length; i++) {
+				tableFields[i] = scanFields == null ? projection[i] : scanFields[projection[i]];
+			}
+			plan = new AggregateIterator(heapFile, predicates[0], tableFields, op, projection.length == 2);
+			if(renameNums.size() != 0) {
+				plan = new RenameIterator(plan, renameNums, renameNames);
+			}
+		} else {
+			plan = rebuild(plan, projection, isAggregate ? op : null, renameNums, renameNames);
+		}
+		//sort on the result's columns, or on the input's if ORDER BY names a
+		//column that was not selected
+		List<OrderByElement> orderBy = plainSelect.getOrderByElements();
+		if(orderBy != null) {
+			int[] sortFields = orderFields(plan.getDesc(), orderBy);
+			if(sortFields != null) {
+				plan = new SortIterator(plan, sortFields, ascending(orderBy));
+			} else {
+				plan = new SortIterator(beforeProject, orderFields(beforeProject.getDesc(), orderBy), ascending(orderBy));
+				plan = rebuild(plan, projection, isAggregate ? op : null, renameNums, renameNames);
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * Returns the field numbers of the ORDER BY columns, or null if some of
+	 * them are not in td
+	 */
+	private static int[] orderFields(TupleDesc td, List<OrderByElement> orderBy) {
+		int[] fields = new int[orderBy.size()];
+		for(int i = 0; i < fields.length; i++) {
+			Expression e = orderBy.get(i).getExpression();
+			if(!(e instanceof Column)) {
+				throw new UnsupportedOperationException("Can only order by columns: " + e);
+			}
+			try {
+				fields[i] = td.nameToId(((Column)e).getColumnName());
+			} catch(NoSuchElementException ex) {
+				return null;
+			}
+		}
+		return fields;
+	}
+	
+	private static boolean[] ascending(List<OrderByElement> orderBy) {
+		boolean[] ascending = new boolean[orderBy.size()];
+		for(int i = 0; i < ascending.length; i++) {
+			ascending[i] = orderBy.get(i).isAsc();
+		}
+		return ascending;
+	}
+	
+	/**
+	 * Adds the projection, aggregate and rename steps of the select list on top of plan
+	 */
+	private static TupleIterator rebuild(TupleIterator plan, int[] projection, AggregateOperator op, ArrayList<Integer> renameNums, ArrayList<String> renameNames) {
+		if(!ProjectIterator.isIdentity(projection, plan.getDesc().numFields())) {
+			plan = new ProjectIterator(plan, projection);
+		}
+		if(op != null) {
+			plan = new AggregateIterator(plan, op, projection.length == 2);
 		}
 		if(renameNums.size() != 0) {
-			resultRelation = resultRelation.rename(renameNums, renameNames);
+			plan = new RenameIterator(plan, renameNums, renameNames);
 		}
-		return resultRelation;
+		return plan;
 	}
 }
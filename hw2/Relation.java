@@ -2,8 +2,13 @@ package hw2;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import hw1.Field;
+import hw1.StringDictionary;
 import hw1.Tuple;
 import hw1.TupleDesc;
 import hw1.Type;
@@ -17,7 +22,10 @@ import hw1.RelationalOperator;;
  */
 public class Relation {
 
+	//the rows of the relation, as tuples, as batches, or both; whichever is
+	//missing is built from the other when it is first needed
 	private ArrayList<Tuple> tuples;
+	private ArrayList<TupleBatch> batches;
 	private TupleDesc td;
 	
 	public Relation(ArrayList<Tuple> l, TupleDesc td) {
@@ -25,10 +33,26 @@ public class Relation {
 		this.td = td;
 	}
 	
+	private Relation(TupleDesc td, ArrayList<TupleBatch> batches) {
+		this.batches = batches;
+		this.td = td;
+	}
+	
 	public TupleDesc getTupleDesc() {
 		return td;
 	}
 	
+	/**
+	 * Returns the rows of this relation in batches (see TupleBatch). The
+	 * operators below all work on these.
+	 */
+	public ArrayList<TupleBatch> getBatches() {
+		if(batches == null) {
+			batches = TupleBatch.fromTuples(tuples, td);
+		}
+		return batches;
+	}
+	
 	/**
 	 * This method performs a select operation on a relation
 	 * @param field number (refer to TupleDesc) of the field to be compared, left side of comparison
@@ -37,13 +61,64 @@ public class Relation {
 	 * @return
 	 */
 	public Relation select(int field, RelationalOperator op, Field operand) {
-		ArrayList<Tuple> newTuples = new ArrayList<>();
-		for(Tuple t: tuples) {
-			if(t.getField(field).compare(op, operand)) {
-				newTuples.add(t);
+		ArrayList<TupleBatch> in = getBatches();
+		ArrayList<TupleBatch> newBatches;
+		if(in.size() > SELECT_CHUNK_BATCHES) {
+			newBatches = SELECT_POOL.invoke(new SelectTask(in, 0, in.size(), field, op, operand));
+		} else {
+			newBatches = selectRange(in, 0, in.size(), field, op, operand);
+		}
+		return new Relation(td, newBatches);
+	}
+	
+	//batches one thread tests before a select is split further
+	private static final int SELECT_CHUNK_BATCHES = 16;
+	//runs the parallel selects and aggregates
+	private static final ForkJoinPool SELECT_POOL = new ForkJoinPool();
+	
+	private static ArrayList<TupleBatch> selectRange(List<TupleBatch> batches, int from, int to, int field, RelationalOperator op, Field operand) {
+		ArrayList<TupleBatch> newBatches = new ArrayList<>(to - from);
+		for(int i = from; i < to; i++) {
+			TupleBatch b = batches.get(i).select(field, op, operand);
+			if(b.size() > 0) {
+				newBatches.add(b);
 			}
 		}
-		return new Relation(newTuples, td);
+		return newBatches;
+	}
+	
+	/**
+	 * Tests a range of batches, splitting it in half on the fork-join pool until
+	 * the pieces are small. Results are combined in their original order.
+	 */
+	private static class SelectTask extends RecursiveTask<ArrayList<TupleBatch>> {
+		private static final long serialVersionUID = 1L;
+		private List<TupleBatch> batches;
+		private int from, to, field;
+		private RelationalOperator op;
+		private Field operand;
+		
+		SelectTask(List<TupleBatch> batches, int from, int to, int field, RelationalOperator op, Field operand) {
+			this.batches = batches;
+			this.from = from;
+			this.to = to;
+			this.field = field;
+			this.op = op;
+			this.operand = operand;
+		}
+		
+		protected ArrayList<TupleBatch> compute() {
+			if(to - from <= SELECT_CHUNK_BATCHES) {
+				return selectRange(batches, from, to, field, op, operand);
+			}
+			int mid = (from + to) >>> 1;
+			SelectTask left = new SelectTask(batches, from, mid, field, op, operand);
+			left.fork();
+			ArrayList<TupleBatch> right = new SelectTask(batches, mid, to, field, op, operand).compute();
+			ArrayList<TupleBatch> result = left.join();
+			result.addAll(right);
+			return result;
+		}
 	}
 	
 	/**
@@ -60,11 +135,11 @@ public class Relation {
 			tdFields[fieldNum] = names.get(i);
 		}
 		TupleDesc newTd = new TupleDesc(tdTypes, tdFields);
-		ArrayList<Tuple> newTuples = tuples;
-		for(Tuple t: newTuples) {
-			t.setDesc(newTd);
+		ArrayList<TupleBatch> newBatches = new ArrayList<>(getBatches().size());
+		for(TupleBatch b: getBatches()) {
+			newBatches.add(b.withDesc(newTd));
 		}
-		return new Relation(newTuples, newTd);
+		return new Relation(newTd, newBatches);
 	}
 	
 	/**
@@ -82,16 +157,15 @@ public class Relation {
 			newFields[i] = td.getFieldName(fieldNum);
 		}
 		TupleDesc newTd = new TupleDesc(newTypes, newFields);
-		ArrayList<Tuple> newTuples = new ArrayList<>();
-		for(Tuple t: tuples) {
-			Tuple newT = new Tuple(newTd);
-			for(int i = 0; i < size; i++) {
-				int fieldNum = fields.get(i);
-				newT.setField(i, t.getField(fieldNum));
-			}
-			newTuples.add(newT);
+		int[] fieldNums = new int[size];
+		for(int i = 0; i < size; i++) {
+			fieldNums[i] = fields.get(i);
 		}
-		return new Relation(newTuples, newTd);
+		ArrayList<TupleBatch> newBatches = new ArrayList<>(getBatches().size());
+		for(TupleBatch b: getBatches()) {
+			newBatches.add(b.project(fieldNums, newTd));
+		}
+		return new Relation(newTd, newBatches);
 	}
 	
 	/**
@@ -115,22 +189,121 @@ public class Relation {
 		System.arraycopy(types2, 0, types, types1.length, types2.length);
 		
 		TupleDesc newTd = new TupleDesc(types, fields);
-		ArrayList<Tuple> newTuples = new ArrayList<>();
-		for(Tuple t1: tuples) {
-			for(Tuple t2: other.tuples) {
-				if(t1.getField(fieldNum1).compare(RelationalOperator.EQ, t2.getField(fieldNum2))) {
-					Tuple newTuple = new Tuple(newTd);
-					for(int i = 0; i < fields1.length; i++) {
-						newTuple.setField(i, t1.getField(i));
+		ArrayList<TupleBatch> batches1 = getBatches();
+		ArrayList<TupleBatch> batches2 = other.getBatches();
+		//compare the join columns as ints where possible: INT columns
+		//directly, and dictionary encoded strings by their codes in the left
+		//side's dictionary. Other columns are hashed by their values' hash
+		//codes and compared value by value.
+		int[][] keys2 = keyColumns(batches2, fieldNum2, TupleBatch.commonDictionary(batches1, fieldNum1));
+		boolean exact = keys2 != null;
+		int[][] keys1;
+		if(exact) {
+			keys1 = new int[batches1.size()][];
+			for(int i = 0; i < batches1.size(); i++) {
+				keys1[i] = keyColumn(batches1.get(i), fieldNum1);
+			}
+		} else {
+			keys1 = hashColumns(batches1, fieldNum1);
+			keys2 = hashColumns(batches2, fieldNum2);
+		}
+		
+		//build a hash table on the smaller side and probe it with the other
+		boolean buildLeft = numRows(batches1) < numRows(batches2);
+		List<TupleBatch> build = buildLeft ? batches1 : batches2;
+		List<TupleBatch> probe = buildLeft ? batches2 : batches1;
+		int[][] buildKeys = buildLeft ? keys1 : keys2;
+		int[][] probeKeys = buildLeft ? keys2 : keys1;
+		int buildField = buildLeft ? fieldNum1 : fieldNum2;
+		int probeField = buildLeft ? fieldNum2 : fieldNum1;
+		IntMultiMap table = new IntMultiMap(numRows(build));
+		for(int j = 0; j < build.size(); j++) {
+			TupleBatch b = build.get(j);
+			for(int k = 0; k < b.size(); k++) {
+				int r = b.row(k);
+				table.put(buildKeys[j][r], ((long)j << 32) | r);
+			}
+		}
+		
+		ArrayList<TupleBatch> newBatches = new ArrayList<>();
+		TupleBatch out = new TupleBatch(newTd);
+		for(int j = 0; j < probe.size(); j++) {
+			TupleBatch pb = probe.get(j);
+			for(int k = 0; k < pb.size(); k++) {
+				int pr = pb.row(k);
+				for(int e = table.first(probeKeys[j][pr]); e >= 0; e = table.next(e)) {
+					TupleBatch bb = build.get((int)(table.value(e) >>> 32));
+					int br = (int)table.value(e);
+					if(!exact && !pb.valueEquals(probeField, pr, bb, buildField, br)) {
+						continue;
+					}
+					if(out.isFull()) {
+						newBatches.add(out);
+						out = new TupleBatch(newTd);
 					}
-					for(int i = 0; i < fields2.length; i++) {
-						newTuple.setField(i, t2.getField(i));
+					if(buildLeft) {
+						out.appendJoined(bb, br, pb, pr);
+					} else {
+						out.appendJoined(pb, pr, bb, br);
 					}
-					newTuples.add(newTuple);
 				}
 			}
 		}
-		return new Relation(newTuples, newTd);
+		if(out.size() > 0) {
+			newBatches.add(out);
+		}
+		return new Relation(newTd, newBatches);
+	}
+	
+	private static int numRows(List<TupleBatch> batches) {
+		int n = 0;
+		for(TupleBatch b: batches) {
+			n += b.size();
+		}
+		return n;
+	}
+	
+	/**
+	 * Returns the hash codes of the join column's values, for columns that
+	 * cannot be compared as ints
+	 */
+	private static int[][] hashColumns(List<TupleBatch> batches, int field) {
+		int[][] hashes = new int[batches.size()][];
+		for(int i = 0; i < batches.size(); i++) {
+			TupleBatch b = batches.get(i);
+			hashes[i] = new int[b.size() == 0 ? 0 : b.row(b.size() - 1) + 1];
+			for(int k = 0; k < b.size(); k++) {
+				int r = b.row(k);
+				hashes[i][r] = b.getField(field, r).hashCode();
+			}
+		}
+		return hashes;
+	}
+	
+	/**
+	 * Returns the join column of each batch as ints, or null if they cannot all
+	 * be compared that way
+	 * @param dict for a STRING column, the dictionary the other side's codes come from
+	 */
+	private static int[][] keyColumns(List<TupleBatch> batches, int field, StringDictionary dict) {
+		int[][] keys = new int[batches.size()][];
+		HashMap<Integer, Integer> translations = new HashMap<>();
+		for(int i = 0; i < batches.size(); i++) {
+			TupleBatch b = batches.get(i);
+			if(b.getDesc().getType(field) == Type.INT) {
+				keys[i] = b.getIntColumn(field);
+			} else if(dict != null) {
+				keys[i] = b.translateCodes(field, dict, translations);
+			}
+			if(keys[i] == null && b.size() > 0) {
+				return null;
+			}
+		}
+		return keys;
+	}
+	
+	private static int[] keyColumn(TupleBatch b, int field) {
+		return b.getDesc().getType(field) == Type.INT ? b.getIntColumn(field) : b.getCodes(field);
 	}
 	
 	/**
@@ -140,18 +313,78 @@ public class Relation {
 	 * @return
 	 */
 	public Relation aggregate(AggregateOperator op, boolean groupBy) {
-		Aggregator aggregator = new Aggregator(op, groupBy, td);
-		for(Tuple t: tuples) {
-			aggregator.merge(t);
+		ArrayList<TupleBatch> in = getBatches();
+		//every partial result must tell dictionary encoded groups apart the same way
+		StringDictionary dict = groupBy && td.getType(0) == Type.STRING ? TupleBatch.commonDictionary(in, 0) : null;
+		Aggregator aggregator;
+		if(in.size() > AGGREGATE_CHUNK_BATCHES) {
+			aggregator = SELECT_POOL.invoke(new AggregateTask(in, 0, in.size(), op, groupBy, td, dict));
+		} else {
+			aggregator = partialAggregate(in, 0, in.size(), op, groupBy, td, dict);
 		}
 		return new Relation(aggregator.getResults(), td);
 	}
 	
+	//batches one thread aggregates before an aggregation is split further
+	private static final int AGGREGATE_CHUNK_BATCHES = 16;
+	
+	private static Aggregator partialAggregate(List<TupleBatch> batches, int from, int to, AggregateOperator op, boolean groupBy, TupleDesc td, StringDictionary dict) {
+		Aggregator aggregator = new Aggregator(op, groupBy, td);
+		aggregator.groupByCodes(dict);
+		aggregator.mergeBatches(batches, from, to);
+		return aggregator;
+	}
+	
+	/**
+	 * Aggregates a range of batches, splitting it in half on the fork-join pool
+	 * until the pieces are small. Each piece is aggregated on its own and the
+	 * partial results are combined in order, so groups come out in the order
+	 * they are first seen.
+	 */
+	private static class AggregateTask extends RecursiveTask<Aggregator> {
+		private static final long serialVersionUID = 1L;
+		private List<TupleBatch> batches;
+		private int from, to;
+		private AggregateOperator op;
+		private boolean groupBy;
+		private TupleDesc td;
+		private StringDictionary dict;
+		
+		AggregateTask(List<TupleBatch> batches, int from, int to, AggregateOperator op, boolean groupBy, TupleDesc td, StringDictionary dict) {
+			this.batches = batches;
+			this.from = from;
+			this.to = to;
+			this.op = op;
+			this.groupBy = groupBy;
+			this.td = td;
+			this.dict = dict;
+		}
+		
+		protected Aggregator compute() {
+			if(to - from <= AGGREGATE_CHUNK_BATCHES) {
+				return partialAggregate(batches, from, to, op, groupBy, td, dict);
+			}
+			int mid = (from + to) >>> 1;
+			AggregateTask left = new AggregateTask(batches, from, mid, op, groupBy, td, dict);
+			left.fork();
+			Aggregator right = new AggregateTask(batches, mid, to, op, groupBy, td, dict).compute();
+			Aggregator result = left.join();
+			result.combine(right);
+			return result;
+		}
+	}
+	
 	public TupleDesc getDesc() {
 		return td;
 	}
 	
 	public ArrayList<Tuple> getTuples() {
+		if(tuples == null) {
+			tuples = new ArrayList<>();
+			for(TupleBatch b: batches) {
+				b.appendTo(tuples);
+			}
+		}
 		return tuples;
 	}
 	
@@ -161,7 +394,7 @@ public class Relation {
 	 */
 	public String toString() {
 		String s = td.toString() + '\n';
-		for(Tuple t: tuples) {
+		for(Tuple t: getTuples()) {
 			s += t.toString() + '\n';
 		}
 		return s;
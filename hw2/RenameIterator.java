@@ -0,0 +1,53 @@
+package hw2;
+
+import java.util.ArrayList;
+
+import hw1.Tuple;
+import hw1.TupleDesc;
+
+/**
+ * Returns the tuples of its child with some fields renamed
+ */
+public class RenameIterator implements TupleIterator {
+
+	private TupleIterator child;
+	private TupleDesc td;
+
+	/**
+	 * @param child the operator to read from
+	 * @param fields the field numbers (refer to TupleDesc) of the fields to be renamed
+	 * @param names a list of new names. The order of these names is the same as the order of field numbers in the field list
+	 */
+	public RenameIterator(TupleIterator child, ArrayList<Integer> fields, ArrayList<String> names) {
+		this.child = child;
+		String[] newFields = child.getDesc().getFields().clone();
+		for(int i = 0; i < fields.size(); i++) {
+			newFields[fields.get(i)] = names.get(i);
+		}
+		this.td = new TupleDesc(child.getDesc().getTypes(), newFields);
+	}
+
+	public void open() {
+		child.open();
+	}
+
+	public Tuple next() {
+		Tuple t = child.next();
+		if(t == null) {
+			return null;
+		}
+		Tuple renamed = new Tuple(td);
+		for(int i = 0; i < td.numFields(); i++) {
+			renamed.setField(i, t.getField(i));
+		}
+		return renamed;
+	}
+
+	public void close() {
+		child.close();
+	}
+
+	public TupleDesc getDesc() {
+		return td;
+	}
+}
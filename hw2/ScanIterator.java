@@ -0,0 +1,153 @@
+package hw2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import hw1.Field;
+import hw1.HeapFile;
+import hw1.Predicate;
+import hw1.RelationalOperator;
+import hw1.Tuple;
+import hw1.TupleDesc;
+
+/**
+ * Returns the tuples of a HeapFile, optionally only those that satisfy some
+ * predicates and only some of their fields (see HeapFile.scanRange). Pages are
+ * read CHUNK_PAGES at a time, either all of them in order or only those an
+ * index lookup returned; while one range is being returned the next one is
+ * read on another thread, so at most two ranges are held at once.
+ */
+public class ScanIterator implements TupleIterator {
+
+	public static final int CHUNK_PAGES = 64;
+
+	private HeapFile hf;
+	private int[] pageIds;
+	private Predicate[] predicates;
+	private int[] fields;
+	private TupleDesc td;
+
+	private int nextPage;
+	private ArrayList<Tuple> chunk;
+	private int pos;
+	private ForkJoinTask<ArrayList<Tuple>> pending;
+
+	/**
+	 * Scans every tuple of a file
+	 * @param hf the file to scan
+	 */
+	public ScanIterator(HeapFile hf) {
+		this(hf, null, null);
+	}
+
+	/**
+	 * Scans the tuples of a file whose given field satisfies a comparison. The
+	 * comparison is made on the pages, before tuples are built.
+	 * @param hf the file to scan
+	 * @param field the field number (refer to TupleDesc) to compare
+	 * @param op the comparison operator, or null to return every tuple
+	 * @param operand the constant to compare against
+	 * @param fields the field numbers to return, or null for all of them
+	 */
+	public ScanIterator(HeapFile hf, int field, RelationalOperator op, Field operand, int[] fields) {
+		this(hf, Predicate.of(field, op, operand), fields);
+	}
+
+	/**
+	 * Scans the tuples of a file that satisfy all of the given predicates. The
+	 * predicates are checked on the page bytes, and only matching tuples are
+	 * decoded.
+	 * @param hf the file to scan
+	 * @param predicates the predicates to check, or null to return every tuple
+	 * @param fields the field numbers to return, or null for all of them
+	 */
+	public ScanIterator(HeapFile hf, Predicate[] predicates, int[] fields) {
+		this(hf, null, predicates, fields);
+	}
+
+	/**
+	 * Scans the tuples on some pages of a file that satisfy all of the given
+	 * predicates (see HeapFile.scanPages)
+	 * @param hf the file to scan
+	 * @param pageIds the page numbers to read, or null to read every page
+	 * @param predicates the predicates to check, or null to return every tuple
+	 * @param fields the field numbers to return, or null for all of them
+	 */
+	public ScanIterator(HeapFile hf, int[] pageIds, Predicate[] predicates, int[] fields) {
+		this.hf = hf;
+		this.pageIds = pageIds;
+		this.predicates = predicates;
+		this.fields = fields;
+		this.td = fields == null ? hf.getTupleDesc() : hf.getTupleDesc().project(fields);
+	}
+
+	public void open() {
+		nextPage = 0;
+		chunk = null;
+		pos = 0;
+		pending = readAhead();
+	}
+
+	public Tuple next() {
+		while(chunk == null || pos == chunk.size()) {
+			if(pending == null) {
+				chunk = null;
+				return null;
+			}
+			chunk = pending.join();
+			pos = 0;
+			pending = readAhead();
+		}
+		return chunk.get(pos++);
+	}
+
+	/**
+	 * Starts reading the next range of pages, or returns null if there are none
+	 */
+	private ForkJoinTask<ArrayList<Tuple>> readAhead() {
+		final int from = nextPage;
+		int numPages = pageIds == null ? hf.getNumPages() : pageIds.length;
+		if(from >= numPages) {
+			return null;
+		}
+		final int to = Math.min(from + CHUNK_PAGES, numPages);
+		nextPage = to;
+		return ForkJoinPool.commonPool().submit(new Callable<ArrayList<Tuple>>() {
+			public ArrayList<Tuple> call() {
+				if(pageIds != null) {
+					return hf.scanPages(Arrays.copyOfRange(pageIds, from, to), predicates, fields);
+				}
+				return hf.scanRange(from, to, predicates, fields);
+			}
+		});
+	}
+
+	/**
+	 * Returns every tuple the scan would, all at once. A scan of the whole
+	 * file splits its pages over a fork-join pool (see HeapFile.parallelSelect)
+	 * instead of reading one range ahead. Callers that keep the whole result
+	 * anyway use this in place of open and next.
+	 * @return the tuples, in the order next returns them
+	 */
+	public ArrayList<Tuple> readAll() {
+		if(pageIds != null) {
+			return hf.scanPages(pageIds, predicates, fields);
+		}
+		return hf.parallelSelect(predicates, fields, true);
+	}
+
+	public void close() {
+		if(pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+		chunk = null;
+	}
+
+	public TupleDesc getDesc() {
+		return td;
+	}
+}
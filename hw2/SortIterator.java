@@ -0,0 +1,161 @@
+package hw2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+import hw1.BulkLoader;
+import hw1.HeapFile;
+import hw1.Tuple;
+import hw1.TupleDesc;
+
+/**
+ * Returns the tuples of its child in sorted order (see TupleComparator), using
+ * a fixed amount of memory. The child is read into memory until the budget is
+ * used up; that run is then sorted and written to a temporary HeapFile, and
+ * reading continues. The sorted runs are finally merged, k ways at once, with
+ * a priority queue holding the current tuple of each run. A child that fits in
+ * the budget is sorted in memory and nothing is written.
+ *
+ * The sort is stable, so it can also order the inputs of a merge join.
+ */
+public class SortIterator implements TupleIterator {
+
+	public static final long DEFAULT_MEMORY = 64L << 20;
+
+	private TupleIterator child;
+	private TupleComparator comparator;
+	private int runTuples;
+
+	//runs written to disk, and the tuples still to be returned from each
+	private ArrayList<HeapFile> runs = new ArrayList<>();
+	private PriorityQueue<RunCursor> heap;
+	//the tuples of the last run, if it was never written out
+	private ArrayList<Tuple> memoryRun;
+	private int memoryPos;
+
+	/**
+	 * Sorts with the default memory budget
+	 * @param child the operator to read from
+	 * @param fields the field numbers (refer to TupleDesc) to sort by, most significant first
+	 * @param ascending for each of fields, whether it sorts ascending
+	 */
+	public SortIterator(TupleIterator child, int[] fields, boolean[] ascending) {
+		this(child, fields, ascending, DEFAULT_MEMORY);
+	}
+
+	/**
+	 * @param child the operator to read from
+	 * @param fields the field numbers (refer to TupleDesc) to sort by, most significant first
+	 * @param ascending for each of fields, whether it sorts ascending
+	 * @param memory the number of bytes of tuples to hold before writing a run
+	 */
+	public SortIterator(TupleIterator child, int[] fields, boolean[] ascending, long memory) {
+		this.child = child;
+		this.comparator = new TupleComparator(child.getDesc(), fields, ascending);
+		this.runTuples = (int)Math.max(1, Math.min(Integer.MAX_VALUE - 8, memory / child.getDesc().getSize()));
+	}
+
+	/**
+	 * The next tuple of one run. Ties between runs go to the earlier run, which
+	 * keeps the sort stable.
+	 */
+	private class RunCursor implements Comparable<RunCursor> {
+		int run;
+		Iterator<Tuple> it;
+		Tuple current;
+
+		RunCursor(int run, Iterator<Tuple> it) {
+			this.run = run;
+			this.it = it;
+			this.current = it.next();
+		}
+
+		boolean advance() {
+			current = it.hasNext() ? it.next() : null;
+			return current != null;
+		}
+
+		public int compareTo(RunCursor other) {
+			int c = comparator.compare(current, other.current);
+			return c != 0 ? c : Integer.compare(run, other.run);
+		}
+	}
+
+	public void open() {
+		close();
+		ArrayList<Tuple> run = new ArrayList<>();
+		child.open();
+		for(Tuple t = child.next(); t != null; t = child.next()) {
+			run.add(t);
+			if(run.size() == runTuples) {
+				writeRun(run);
+				run = new ArrayList<>();
+			}
+		}
+		child.close();
+		Collections.sort(run, comparator);
+
+		heap = new PriorityQueue<>(runs.size() + 1);
+		for(int i = 0; i < runs.size(); i++) {
+			heap.add(new RunCursor(i, runs.get(i).iterator()));
+		}
+		if(heap.isEmpty()) {
+			memoryRun = run;
+			memoryPos = 0;
+		} else if(!run.isEmpty()) {
+			heap.add(new RunCursor(runs.size(), run.iterator()));
+		}
+	}
+
+	/**
+	 * Sorts a run and writes it to a temporary file
+	 */
+	private void writeRun(ArrayList<Tuple> run) {
+		Collections.sort(run, comparator);
+		try {
+			File f = File.createTempFile("sort", ".run");
+			f.deleteOnExit();
+			HeapFile hf = new HeapFile(f, child.getDesc());
+			runs.add(hf);
+			BulkLoader loader = new BulkLoader(hf);
+			for(Tuple t: run) {
+				loader.add(t);
+			}
+			loader.finish();
+		} catch(Exception e) {
+			throw new RuntimeException("Unable to write a sorted run", e);
+		}
+	}
+
+	public Tuple next() {
+		if(memoryRun != null) {
+			return memoryPos < memoryRun.size() ? memoryRun.get(memoryPos++) : null;
+		}
+		RunCursor cursor = heap.poll();
+		if(cursor == null) {
+			return null;
+		}
+		Tuple t = cursor.current;
+		if(cursor.advance()) {
+			heap.add(cursor);
+		}
+		return t;
+	}
+
+	public void close() {
+		memoryRun = null;
+		heap = null;
+		for(HeapFile hf: runs) {
+			hf.close();
+			hf.getFile().delete();
+		}
+		runs.clear();
+	}
+
+	public TupleDesc getDesc() {
+		return child.getDesc();
+	}
+}
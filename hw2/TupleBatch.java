@@ -0,0 +1,470 @@
+package hw2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import hw1.Field;
+import hw1.IntField;
+import hw1.RelationalOperator;
+import hw1.StringDictionary;
+import hw1.StringField;
+import hw1.Tuple;
+import hw1.TupleDesc;
+import hw1.Type;
+
+/**
+ * A batch of up to CAPACITY rows stored column by column: INT columns as int
+ * arrays and STRING columns as one byte array holding every row's characters
+ * plus the offset where each row starts. A selection vector lists the rows
+ * that are still part of the batch, so filtering only rewrites that vector.
+ *
+ * STRING columns of a dictionary encoded table are
+ * held as their int codes instead, and only turned into characters if an
+ * operator needs the strings themselves.
+ *
+ * A batch made from tuples fills each column the first time it is used, so
+ * operators only decode the fields they look at. Batches derived from one
+ * another share the columns that were filled before they were derived;
+ * filled columns are never modified.
+ */
+public class TupleBatch {
+
+	public static final int CAPACITY = 1024;
+
+	private TupleDesc td;
+	private int numRows;
+	// tuples the columns are filled from, or null once every column is filled
+	private Tuple[] rows;
+	private int[][] ints;
+	private byte[][] chars;
+	private int[][] offsets;
+	// dictionary codes of STRING columns whose rows all use the same dictionary
+	private int[][] codes;
+	private StringDictionary[] dicts;
+	// rows that are part of the batch, in order, or null if all of them are
+	private int[] sel;
+	private int selSize;
+
+	/**
+	 * Creates an empty batch that rows are appended to column by column
+	 * @param td the schema of the rows
+	 */
+	public TupleBatch(TupleDesc td) {
+		this.td = td;
+		int n = td.numFields();
+		ints = new int[n][];
+		chars = new byte[n][];
+		offsets = new int[n][];
+		codes = new int[n][];
+		dicts = new StringDictionary[n];
+		for(int j = 0; j < n; j++) {
+			if(td.getType(j) == Type.INT) {
+				ints[j] = new int[CAPACITY];
+			} else {
+				chars[j] = new byte[CAPACITY * 8];
+				offsets[j] = new int[CAPACITY + 1];
+			}
+		}
+	}
+
+	/**
+	 * Creates a batch over the given tuples. No field is read until its column is used.
+	 * @param td the schema of the tuples
+	 * @param rows the tuples, at most CAPACITY of them
+	 */
+	public TupleBatch(TupleDesc td, Tuple[] rows) {
+		this(td, rows, rows.length);
+	}
+
+	private TupleBatch(TupleDesc td, Tuple[] rows, int numRows) {
+		this.td = td;
+		this.rows = rows;
+		this.numRows = numRows;
+		int n = td.numFields();
+		ints = new int[n][];
+		chars = new byte[n][];
+		offsets = new int[n][];
+		codes = new int[n][];
+		dicts = new StringDictionary[n];
+	}
+
+	/**
+	 * Splits a list of tuples into batches of CAPACITY rows
+	 */
+	public static ArrayList<TupleBatch> fromTuples(List<Tuple> tuples, TupleDesc td) {
+		ArrayList<TupleBatch> batches = new ArrayList<>((tuples.size() + CAPACITY - 1) / CAPACITY);
+		for(int from = 0; from < tuples.size(); from += CAPACITY) {
+			List<Tuple> chunk = tuples.subList(from, Math.min(from + CAPACITY, tuples.size()));
+			batches.add(new TupleBatch(td, chunk.toArray(new Tuple[chunk.size()])));
+		}
+		return batches;
+	}
+
+	public TupleDesc getDesc() {
+		return td;
+	}
+
+	/**
+	 * @return the number of rows in the batch
+	 */
+	public int size() {
+		return sel == null ? numRows : selSize;
+	}
+
+	/**
+	 * @return the row number of the i-th row in the batch, for use with the column accessors
+	 */
+	public int row(int i) {
+		return sel == null ? i : sel[i];
+	}
+
+	public boolean isFull() {
+		return numRows == CAPACITY;
+	}
+
+	/**
+	 * Returns an INT column, indexed by row number. Rows that are not part of the batch hold no meaningful value.
+	 */
+	public int[] getIntColumn(int col) {
+		if(ints[col] == null) {
+			int[] values = new int[numRows];
+			for(int i = 0; i < size(); i++) {
+				int r = row(i);
+				values[r] = ((IntField)rows[r].getField(col)).getValue();
+			}
+			ints[col] = values;
+		}
+		return ints[col];
+	}
+
+	/**
+	 * Returns the dictionary codes of a STRING column, indexed by row number,
+	 * or null if the column's rows do not share a dictionary
+	 */
+	public int[] getCodes(int col) {
+		fillStrings(col);
+		return codes[col];
+	}
+
+	/**
+	 * @return the dictionary of the codes returned by getCodes
+	 */
+	public StringDictionary getDictionary(int col) {
+		fillStrings(col);
+		return dicts[col];
+	}
+
+	/**
+	 * Returns a STRING column as codes of the given dictionary, with -1 for
+	 * values the dictionary does not have, or null if the column has no codes.
+	 * @param cache translations from this column's dictionary to target, shared between calls
+	 */
+	public int[] translateCodes(int col, StringDictionary target, Map<Integer, Integer> cache) {
+		int[] values = getCodes(col);
+		if(values == null || dicts[col] == target) {
+			return values;
+		}
+		int[] translated = new int[numRows];
+		for(int i = 0; i < size(); i++) {
+			int r = row(i);
+			Integer code = cache.get(values[r]);
+			if(code == null) {
+				code = target.lookup(dicts[col].decode(values[r]));
+				cache.put(values[r], code);
+			}
+			translated[r] = code;
+		}
+		return translated;
+	}
+
+	/**
+	 * @return the dictionary every batch's codes for the given STRING column come from, or null if there is no single one
+	 */
+	public static StringDictionary commonDictionary(List<TupleBatch> batches, int col) {
+		StringDictionary dict = null;
+		for(TupleBatch b: batches) {
+			if(b.td.getType(col) != Type.STRING) {
+				return null;
+			}
+			if(b.size() == 0) {
+				continue;
+			}
+			StringDictionary d = b.getDictionary(col);
+			if(d == null || (dict != null && d != dict)) {
+				return null;
+			}
+			dict = d;
+		}
+		return dict;
+	}
+
+	/**
+	 * Fills a STRING column with codes if its rows share a dictionary, and
+	 * with characters otherwise
+	 */
+	private void fillStrings(int col) {
+		if(chars[col] != null || codes[col] != null) {
+			return;
+		}
+		StringDictionary dict = size() > 0 ? rows[row(0)].getDictionary(col) : null;
+		for(int i = 1; dict != null && i < size(); i++) {
+			if(rows[row(i)].getDictionary(col) != dict) {
+				dict = null;
+			}
+		}
+		if(dict == null) {
+			fillChars(col);
+			return;
+		}
+		int[] values = new int[numRows];
+		for(int i = 0; i < size(); i++) {
+			int r = row(i);
+			values[r] = rows[r].getCode(col);
+		}
+		dicts[col] = dict;
+		codes[col] = values;
+	}
+
+	/**
+	 * Fills a STRING column with characters, decoding its codes if it has them
+	 */
+	private void fillChars(int col) {
+		if(chars[col] != null) {
+			return;
+		}
+		String[] values = new String[numRows];
+		int total = 0;
+		for(int i = 0; i < size(); i++) {
+			int r = row(i);
+			if(codes[col] != null) {
+				values[r] = dicts[col].decode(codes[col][r]);
+			} else {
+				values[r] = ((StringField)rows[r].getField(col)).getValue();
+			}
+			total += values[r].length();
+		}
+		byte[] bytes = new byte[total];
+		int[] starts = new int[numRows + 1];
+		int pos = 0;
+		for(int r = 0; r < numRows; r++) {
+			starts[r] = pos;
+			if(values[r] != null) {
+				for(int k = 0; k < values[r].length(); k++) {
+					bytes[pos++] = (byte)values[r].charAt(k);
+				}
+			}
+		}
+		starts[numRows] = pos;
+		offsets[col] = starts;
+		chars[col] = bytes;
+	}
+
+	/**
+	 * @return the value in the given column and row as a Field
+	 */
+	public Field getField(int col, int row) {
+		if(td.getType(col) == Type.INT) {
+			return new IntField(getIntColumn(col)[row]);
+		}
+		fillStrings(col);
+		if(codes[col] != null) {
+			return new StringField(dicts[col].decode(codes[col][row]));
+		}
+		int start = offsets[col][row];
+		char[] s = new char[offsets[col][row + 1] - start];
+		for(int k = 0; k < s.length; k++) {
+			s[k] = (char)(chars[col][start + k] & 0xFF);
+		}
+		return new StringField(new String(s));
+	}
+
+	/**
+	 * @return true if this batch's value at (col, row) equals other's value at (ocol, orow)
+	 */
+	public boolean valueEquals(int col, int row, TupleBatch other, int ocol, int orow) {
+		if(td.getType(col) == Type.INT) {
+			return getIntColumn(col)[row] == other.getIntColumn(ocol)[orow];
+		}
+		fillStrings(col);
+		other.fillStrings(ocol);
+		if(codes[col] != null && dicts[col] == other.dicts[ocol]) {
+			return codes[col][row] == other.codes[ocol][orow];
+		}
+		fillChars(col);
+		other.fillChars(ocol);
+		int start = offsets[col][row];
+		int len = offsets[col][row + 1] - start;
+		int ostart = other.offsets[ocol][orow];
+		if(len != other.offsets[ocol][orow + 1] - ostart) {
+			return false;
+		}
+		for(int k = 0; k < len; k++) {
+			if(chars[col][start + k] != other.chars[ocol][ostart + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A copy of this batch's bookkeeping that shares its filled columns
+	 */
+	private TupleBatch view() {
+		TupleBatch b = new TupleBatch(td, rows, numRows);
+		b.ints = ints.clone();
+		b.chars = chars.clone();
+		b.offsets = offsets.clone();
+		b.codes = codes.clone();
+		b.dicts = dicts.clone();
+		b.sel = sel;
+		b.selSize = selSize;
+		return b;
+	}
+
+	/**
+	 * Returns the rows of this batch whose given field satisfies a comparison
+	 * @param field number (refer to TupleDesc) of the field to be compared
+	 * @param op the comparison operator
+	 * @param operand a constant to be compared against the given column
+	 * @return a batch sharing this batch's columns
+	 */
+	public TupleBatch select(int field, RelationalOperator op, Field operand) {
+		int[] newSel = new int[size()];
+		int n = 0;
+		StringDictionary.CodeBound bound;
+		if(td.getType(field) == Type.INT) {
+			int[] values = getIntColumn(field);
+			int c = ((IntField)operand).getValue();
+			for(int i = 0; i < size(); i++) {
+				int r = row(i);
+				if(IntField.compare(values[r], op, c)) {
+					newSel[n++] = r;
+				}
+			}
+		} else if(getCodes(field) != null && (bound = dicts[field].bound(op, ((StringField)operand).getValue())) != null) {
+			int[] values = codes[field];
+			for(int i = 0; i < size(); i++) {
+				int r = row(i);
+				if(bound.matches(values[r])) {
+					newSel[n++] = r;
+				}
+			}
+		} else {
+			fillChars(field);
+			String s = ((StringField)operand).getValue();
+			byte[] bytes = chars[field];
+			int[] starts = offsets[field];
+			for(int i = 0; i < size(); i++) {
+				int r = row(i);
+				if(IntField.compare(compareChars(bytes, starts[r], starts[r + 1], s), op, 0)) {
+					newSel[n++] = r;
+				}
+			}
+		}
+		TupleBatch b = view();
+		b.sel = newSel;
+		b.selSize = n;
+		return b;
+	}
+
+	/**
+	 * Compares the characters in bytes[from, to) with s, as String.compareTo does
+	 */
+	private static int compareChars(byte[] bytes, int from, int to, String s) {
+		int len = to - from;
+		int n = Math.min(len, s.length());
+		for(int k = 0; k < n; k++) {
+			int d = (bytes[from + k] & 0xFF) - s.charAt(k);
+			if(d != 0) {
+				return d;
+			}
+		}
+		return len - s.length();
+	}
+
+	/**
+	 * Returns a batch holding only the given columns. The columns are filled
+	 * here and shared with the new batch.
+	 * @param fields field numbers (refer to TupleDesc) of the columns to keep, in order
+	 * @param newTd the schema of the projected rows
+	 */
+	public TupleBatch project(int[] fields, TupleDesc newTd) {
+		TupleBatch b = new TupleBatch(newTd, null, numRows);
+		b.sel = sel;
+		b.selSize = selSize;
+		for(int i = 0; i < fields.length; i++) {
+			int j = fields[i];
+			if(td.getType(j) == Type.INT) {
+				b.ints[i] = getIntColumn(j);
+			} else {
+				fillStrings(j);
+				b.chars[i] = chars[j];
+				b.offsets[i] = offsets[j];
+				b.codes[i] = codes[j];
+				b.dicts[i] = dicts[j];
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Returns this batch with a new schema of the same types, such as after a rename
+	 */
+	public TupleBatch withDesc(TupleDesc newTd) {
+		TupleBatch b = view();
+		b.td = newTd;
+		return b;
+	}
+
+	/**
+	 * Appends a row made of a row of left followed by a row of right. This batch must have been created empty and must not be full.
+	 */
+	public void appendJoined(TupleBatch left, int lrow, TupleBatch right, int rrow) {
+		int n = left.td.numFields();
+		for(int j = 0; j < n; j++) {
+			appendValue(j, left, j, lrow);
+		}
+		for(int j = 0; j < right.td.numFields(); j++) {
+			appendValue(n + j, right, j, rrow);
+		}
+		numRows++;
+	}
+
+	private void appendValue(int col, TupleBatch src, int scol, int srow) {
+		if(td.getType(col) == Type.INT) {
+			ints[col][numRows] = src.getIntColumn(scol)[srow];
+			return;
+		}
+		src.fillChars(scol);
+		int start = src.offsets[scol][srow];
+		int len = src.offsets[scol][srow + 1] - start;
+		int pos = offsets[col][numRows];
+		if(pos + len > chars[col].length) {
+			chars[col] = Arrays.copyOf(chars[col], Math.max(pos + len, chars[col].length * 2));
+		}
+		System.arraycopy(src.chars[scol], start, chars[col], pos, len);
+		offsets[col][numRows + 1] = pos + len;
+	}
+
+	/**
+	 * Adds the rows of this batch to a list of tuples. Rows that came from
+	 * tuples and still have all their columns are added as those tuples.
+	 */
+	public void appendTo(ArrayList<Tuple> out) {
+		for(int i = 0; i < size(); i++) {
+			int r = row(i);
+			if(rows != null) {
+				rows[r].setDesc(td);
+				out.add(rows[r]);
+				continue;
+			}
+			Tuple t = new Tuple(td);
+			for(int j = 0; j < td.numFields(); j++) {
+				t.setField(j, getField(j, r));
+			}
+			out.add(t);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package hw2;
+
+import java.util.Comparator;
+
+import hw1.IntField;
+import hw1.StringField;
+import hw1.Tuple;
+import hw1.TupleDesc;
+import hw1.Type;
+
+/**
+ * Orders tuples by some of their fields, each ascending or descending. Ints
+ * compare numerically and strings lexicographically.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+	private int[] fields;
+	private boolean[] ascending;
+	private boolean[] isInt;
+
+	/**
+	 * @param td the schema of the tuples to compare
+	 * @param fields the field numbers (refer to TupleDesc) to order by, most significant first
+	 * @param ascending for each of fields, whether it sorts ascending
+	 */
+	public TupleComparator(TupleDesc td, int[] fields, boolean[] ascending) {
+		this.fields = fields;
+		this.ascending = ascending;
+		this.isInt = new boolean[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			isInt[i] = td.getType(fields[i]) == Type.INT;
+		}
+	}
+
+	public int compare(Tuple t1, Tuple t2) {
+		for(int i = 0; i < fields.length; i++) {
+			int c;
+			if(isInt[i]) {
+				c = Integer.compare(((IntField)t1.getField(fields[i])).getValue(), ((IntField)t2.getField(fields[i])).getValue());
+			} else {
+				c = ((StringField)t1.getField(fields[i])).getValue().compareTo(((StringField)t2.getField(fields[i])).getValue());
+			}
+			if(c != 0) {
+				return ascending[i] ? c : -c;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,36 @@
+package hw2;
+
+import hw1.Tuple;
+import hw1.TupleDesc;
+
+/**
+ * One step of a query plan. Operators are chained so that each one pulls
+ * tuples from the one below it as it needs them, and tuples flow from the
+ * scans to the result without whole relations being built in between.
+ *
+ * A caller opens the operator, calls next() until it returns null, and then
+ * closes it. An operator may be opened again after it has been closed, and
+ * then returns its tuples from the start.
+ */
+public interface TupleIterator {
+
+	/**
+	 * Prepares the operator, and the operators below it, to return tuples
+	 */
+	void open();
+
+	/**
+	 * @return the next tuple, or null if there are no more
+	 */
+	Tuple next();
+
+	/**
+	 * Releases whatever the operator, and the operators below it, hold
+	 */
+	void close();
+
+	/**
+	 * @return the schema of the tuples this operator returns
+	 */
+	TupleDesc getDesc();
+}
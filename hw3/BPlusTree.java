@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Stack;
 
 import hw1.Field;
+import hw1.RelationalOperator;
 
 public class BPlusTree {
 	int degree;
@@ -26,6 +27,45 @@ public class BPlusTree {
 		return resultNode;
 	}
 
+	/**
+	 * Returns the entries with keys between low and high, inclusive, in key
+	 * order. Only the subtrees that can hold such keys are visited.
+	 * 
+	 * @param low
+	 *            the smallest key to return, or null for no lower bound
+	 * @param high
+	 *            the largest key to return, or null for no upper bound
+	 */
+	public ArrayList<Entry> searchRange(Field low, Field high) {
+		ArrayList<Entry> result = new ArrayList<Entry>();
+		searchRange(root, low, high, result);
+		return result;
+	}
+
+	private void searchRange(Node node, Field low, Field high, ArrayList<Entry> result) {
+		if (node.isLeafNode()) {
+			for (Entry e : ((LeafNode) node).getEntries()) {
+				if ((low == null || e.getField().compare(RelationalOperator.GTE, low))
+						&& (high == null || e.getField().compare(RelationalOperator.LTE, high))) {
+					result.add(e);
+				}
+			}
+			return;
+		}
+		InnerNode innerNode = (InnerNode) node;
+		ArrayList<Field> keys = innerNode.getKeys();
+		ArrayList<Node> children = innerNode.getChildren();
+		for (int i = 0; i < children.size(); i++) {
+			// child i holds the keys after keys[i - 1], up to keys[i]
+			if (i > 0 && high != null && keys.get(i - 1).compare(RelationalOperator.GTE, high)) {
+				return;
+			}
+			if (i >= keys.size() || low == null || keys.get(i).compare(RelationalOperator.GTE, low)) {
+				searchRange(children.get(i), low, high, result);
+			}
+		}
+	}
+
 	private void resolveOverCapacity(InnerNode parentNode, Node childNode) {
 		if (childNode.isOverCapacity()) {
 			Node newNode;
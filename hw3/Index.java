@@ -0,0 +1,181 @@
+package hw3;
+
+import java.util.BitSet;
+
+import hw1.Field;
+import hw1.HeapFile;
+import hw1.HeapPage;
+import hw1.Predicate;
+import hw1.RelationalOperator;
+import hw1.TupleDesc;
+
+/**
+ * An index on one column of a HeapFile. It is a BPlusTree with one entry for
+ * each value of the column and each page holding that value (see PageKey);
+ * Entry.getPage() tells where to look. Looking up a value or a range of
+ * values only visits the part of the tree that holds them, so the pages to
+ * read are found in O(log n) plus the number of entries returned.
+ *
+ * The entries only say which pages may hold a value; the tuples on those
+ * pages must still be checked. An entry is removed once the page a tuple was
+ * deleted from no longer holds its value, and a page a transaction changed is
+ * indexed again when the transaction aborts (see restorePage), so the index
+ * never misses a page.
+ */
+public class Index {
+
+	public static final int DEGREE = 64;
+
+	private HeapFile hf;
+	private int field;
+	private int[] fields;
+	private TupleDesc projected;
+	private BPlusTree tree;
+
+	/**
+	 * Builds an index over the tuples already in a file
+	 *
+	 * @param hf
+	 *            the file to index
+	 * @param field
+	 *            the field number (refer to TupleDesc) of the indexed column
+	 */
+	public Index(HeapFile hf, int field) {
+		this.hf = hf;
+		this.field = field;
+		this.fields = new int[] { field };
+		this.projected = hf.getTupleDesc().project(fields);
+		this.tree = new BPlusTree(DEGREE);
+		for (int pid = 0; pid < hf.getNumPages(); pid++) {
+			addPage(hf.getPage(pid));
+		}
+	}
+
+	public HeapFile getFile() {
+		return hf;
+	}
+
+	public int getField() {
+		return field;
+	}
+
+	/**
+	 * Records that a page holds the given value of the indexed column
+	 */
+	public synchronized void insert(Field value, int page) {
+		tree.insert(new Entry(new PageKey(value, page), page));
+	}
+
+	/**
+	 * Adds entries for every tuple on a page
+	 */
+	public synchronized void addPage(HeapPage hp) {
+		for (int s = hp.nextOccupiedSlot(0); s >= 0; s = hp.nextOccupiedSlot(s + 1)) {
+			insert(hp.getTuple(s, fields, projected).getField(0), hp.getId());
+		}
+	}
+
+	/**
+	 * Called after a tuple was deleted from a page. Its entry is removed unless
+	 * another tuple with the same value is still on the page.
+	 *
+	 * @param value
+	 *            the deleted tuple's value of the indexed column
+	 * @param hp
+	 *            the page it was deleted from, as changed by the delete: the
+	 *            buffer pool's copy if the delete went through it
+	 */
+	public synchronized void delete(Field value, HeapPage hp) {
+		for (int s = hp.nextOccupiedSlot(0); s >= 0; s = hp.nextOccupiedSlot(s + 1)) {
+			if (hp.matches(s, field, RelationalOperator.EQ, value)) {
+				return;
+			}
+		}
+		PageKey key = new PageKey(value, hp.getId());
+		if (tree.search(key) != null) {
+			tree.delete(new Entry(key, hp.getId()));
+		}
+	}
+
+	/**
+	 * Called when a page is put back as it was before a transaction changed
+	 * it. Entries for values only the changed page held are removed, and
+	 * entries for every value of the restored page are added back.
+	 *
+	 * @param changed
+	 *            the page as the transaction left it
+	 * @param restored
+	 *            the page put back in its place
+	 */
+	public synchronized void restorePage(HeapPage changed, HeapPage restored) {
+		for (int s = changed.nextOccupiedSlot(0); s >= 0; s = changed.nextOccupiedSlot(s + 1)) {
+			delete(changed.getTuple(s, fields, projected).getField(0), restored);
+		}
+		addPage(restored);
+	}
+
+	/**
+	 * Returns the pages that may hold tuples satisfying the predicates on the
+	 * indexed column. Equality and range predicates narrow the range of values
+	 * looked up; the others, and predicates on other columns, are ignored.
+	 *
+	 * @param predicates
+	 *            the conditions of a scan
+	 * @return the page numbers in increasing order, or null if none of the
+	 *         predicates can use this index
+	 */
+	public synchronized int[] lookup(Predicate[] predicates) {
+		PageKey low = null;
+		PageKey high = null;
+		boolean used = false;
+		for (Predicate p : predicates) {
+			if (p.getField() != field) {
+				continue;
+			}
+			Field v = p.getOperand();
+			// pages never reach the ends of the int range, so these bounds
+			// take in or leave out every entry of v
+			PageKey first = new PageKey(v, Integer.MIN_VALUE);
+			PageKey last = new PageKey(v, Integer.MAX_VALUE);
+			switch (p.getOp()) {
+			case EQ:
+				low = max(low, first);
+				high = min(high, last);
+				break;
+			case GT:
+				low = max(low, last);
+				break;
+			case GTE:
+				low = max(low, first);
+				break;
+			case LT:
+				high = min(high, first);
+				break;
+			case LTE:
+				high = min(high, last);
+				break;
+			default:
+				continue;
+			}
+			used = true;
+		}
+		if (!used) {
+			return null;
+		}
+		BitSet pages = new BitSet();
+		if (low == null || high == null || low.compare(RelationalOperator.LTE, high)) {
+			for (Entry e : tree.searchRange(low, high)) {
+				pages.set(e.getPage());
+			}
+		}
+		return pages.stream().toArray();
+	}
+
+	private static PageKey max(PageKey a, PageKey b) {
+		return a == null || b.compare(RelationalOperator.GT, a) ? b : a;
+	}
+
+	private static PageKey min(PageKey a, PageKey b) {
+		return a == null || b.compare(RelationalOperator.LT, a) ? b : a;
+	}
+}
@@ -0,0 +1,86 @@
+package hw3;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import hw1.Field;
+import hw1.RelationalOperator;
+import hw1.Type;
+
+/**
+ * The key of an Index entry: a value of the indexed column and a page holding
+ * it. Keys order by value and then by page, so a value found on several pages
+ * has one entry per page and they sit next to each other in the tree.
+ */
+class PageKey implements Field {
+
+	private Field value;
+	private int page;
+
+	PageKey(Field value, int page) {
+		this.value = value;
+		this.page = page;
+	}
+
+	Field getValue() {
+		return value;
+	}
+
+	private int compareTo(PageKey other) {
+		if (value.compare(RelationalOperator.LT, other.value)) {
+			return -1;
+		}
+		if (value.compare(RelationalOperator.GT, other.value)) {
+			return 1;
+		}
+		return Integer.compare(page, other.page);
+	}
+
+	public boolean compare(RelationalOperator op, Field other) {
+		int c = compareTo((PageKey) other);
+		switch (op) {
+		case EQ:
+			return c == 0;
+		case NOTEQ:
+			return c != 0;
+		case GT:
+			return c > 0;
+		case GTE:
+			return c >= 0;
+		case LT:
+			return c < 0;
+		case LTE:
+			return c <= 0;
+		}
+		return false;
+	}
+
+	public Type getType() {
+		return value.getType();
+	}
+
+	public void serialize(DataOutputStream dos) throws IOException {
+		value.serialize(dos);
+	}
+
+	public byte[] toByteArray() {
+		return value.toByteArray();
+	}
+
+	public void writeTo(ByteBuffer buf) {
+		value.writeTo(buf);
+	}
+
+	public int hashCode() {
+		return value.hashCode() * 31 + page;
+	}
+
+	public boolean equals(Object other) {
+		return other instanceof PageKey && compareTo((PageKey) other) == 0;
+	}
+
+	public String toString() {
+		return value + "@" + page;
+	}
+}
@@ -4,6 +4,8 @@ import java.io.*;
 import java.util.*;
 
 import hw1.Database;
+import hw1.Field;
+import hw1.FreeSpaceMap;
 import hw1.HeapFile;
 import hw1.HeapPage;
 import hw1.Tuple;
@@ -77,6 +79,17 @@ public class BufferPool {
     	}
     }
 
+    /**
+     * Returns a page to look at under a read lock. A page that is not in the
+     * buffer pool is read from disk but not added to it, so looking at many
+     * pages does not fill the pool.
+     */
+    private HeapPage peekPage(int tid, int tableId, int pid) throws Exception {
+    	this.lockManager.acquireLock(tid, pid, Permissions.READ_ONLY);
+    	HeapPage page = this.cache.get(pid);
+    	return page != null ? page : Database.getCatalog().getDbFile(tableId).readPage(pid);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -110,23 +123,39 @@ public class BufferPool {
         // your code here
     	if (commit) {
     		Set<Integer> dirtiedFlushedPages = this.transactionToPages.get(tid);
+    		// group this transaction's dirty pages by table, in page order, so
+    		// each file gets one batched write and one sync
+    		Map<Integer, TreeMap<Integer, HeapPage>> dirtyByTable = new HashMap<Integer, TreeMap<Integer, HeapPage>>();
     		for (Map.Entry<Integer, HeapPage> entry : this.cache.entrySet()) {
     			Integer pageId = entry.getKey();
     			HeapPage page = entry.getValue();
     			if (tid == page.isDirty()) {
-    	    		flushPage(page.getTableId(), pageId);
-    	    		page.setBeforeImage();
+    				TreeMap<Integer, HeapPage> tablePages = dirtyByTable.get(page.getTableId());
+    				if (tablePages == null) {
+    					tablePages = new TreeMap<Integer, HeapPage>();
+    					dirtyByTable.put(page.getTableId(), tablePages);
+    				}
+    				tablePages.put(pageId, page);
     	    	} else if (dirtiedFlushedPages != null && dirtiedFlushedPages.contains(pageId)) {
     	    		page.setBeforeImage();
     	    	}
     		}
+    		flushPages(dirtyByTable);
     	} else {
     		for (Map.Entry<Integer, HeapPage> entry : this.cache.entrySet()) {
     			Integer pageId = entry.getKey();
     			HeapPage page = entry.getValue();
     		 if (tid == page.isDirty()) {
-    		        this.cache.put(pageId, page.getBeforeImage());
+    		        HeapPage before = page.getBeforeImage();
+    		        this.cache.put(pageId, before);
     		        page.markDirty(false, -1);
+    		        HeapFile file = Database.getCatalog().getDbFile(page.getTableId());
+    		        // slots this transaction filled are free again
+    		        if (before.hasEmptySlot()) {
+    		        	file.getFreeSpaceMap().markFree(pageId);
+    		        }
+    		        // and the indexes name the page for what it holds again
+    		        file.reindexPage(page, before);
     		    }
     		}
     	}
@@ -139,6 +168,11 @@ public class BufferPool {
      * acquire a write lock on the page the tuple is added to. May block if the lock cannot 
      * be acquired.
      * 
+     * Pages the free-space map offers are first looked at under a read lock.
+     * Those without room are marked full and their lock is given back (unless
+     * the transaction held it already), so they are neither kept locked nor
+     * brought into the buffer pool.
+     * 
      * Marks any pages that were dirtied by the operation as dirty
      *
      * @param tid the transaction adding the tuple
@@ -148,17 +182,33 @@ public class BufferPool {
     public void insertTuple(int tid, int tableId, Tuple t)
         throws Exception {
         // your code here
-    	for (Map.Entry<Integer, HeapPage> entry : this.cache.entrySet()) {
-    		Integer pageId = entry.getKey();
-			HeapPage page = entry.getValue();
-			int table = page.getTableId();
-			boolean hasSpace = page.hasEmptySlot();
-			if (table == tableId && hasSpace) {
-				page.addTuple(t);
-				page.markDirty(true, tid);
-				this.cache.put(pageId, page);
-				break;
-			}
+    	HeapFile file = Database.getCatalog().getDbFile(tableId);
+    	FreeSpaceMap freeSpace = file.getFreeSpaceMap();
+    	int pageId = freeSpace.findPage();
+    	while (true) {
+    		if (pageId < 0) {
+    			pageId = file.appendPage();
+    		}
+    		boolean held = holdsLock(tid, tableId, pageId);
+    		HeapPage peeked = peekPage(tid, tableId, pageId);
+    		if (peeked.hasRoomFor(t)) {
+    			// the read lock kept others from changing the page since
+    			HeapPage page = getPage(tid, tableId, pageId, Permissions.READ_WRITE);
+    			page.markDirty(true, tid);
+    			page.addTuple(t);
+    			if (!page.hasEmptySlot()) {
+    				freeSpace.markFull(pageId);
+    			}
+    			file.indexTuple(t, pageId);
+    			return;
+    		}
+    		if (!peeked.hasEmptySlot()) {
+    			freeSpace.markFull(pageId);
+    		}
+    		if (!held) {
+    			releasePage(tid, tableId, pageId);
+    		}
+    		pageId = freeSpace.findPage(pageId + 1);
     	}
     }
 
@@ -176,15 +226,29 @@ public class BufferPool {
     public void deleteTuple(int tid, int tableId, Tuple t)
         throws Exception {
         // your code here
-    	for (Map.Entry<Integer, HeapPage> entry : this.cache.entrySet()) {
-    		Integer pageId = entry.getKey();
-			HeapPage page = entry.getValue();
-			if (page.getTableId() == tableId && page.getId() == t.getId()) {
-				page.deleteTuple(t);
-				page.markDirty(true, tid);
-				break;
-			}
-			this.cache.put(pageId, page);
+    	HeapFile file = Database.getCatalog().getDbFile(tableId);
+    	HeapPage page = getPage(tid, tableId, t.getPid(), Permissions.READ_WRITE);
+    	page.markDirty(true, tid);
+    	Field[] keys = file.indexKeys(t);
+    	page.deleteTuple(t);
+    	file.getFreeSpaceMap().markFree(t.getPid());
+    	file.unindexTuple(keys, page);
+    }
+
+    /**
+     * Writes out groups of dirty pages, one batch per table, marks them clean
+     * and drops their before-images.
+     *
+     * @param dirtyByTable dirty pages keyed by table id, each sorted by page id
+     */
+    private synchronized void flushPages(Map<Integer, TreeMap<Integer, HeapPage>> dirtyByTable) throws IOException {
+    	for (Map.Entry<Integer, TreeMap<Integer, HeapPage>> entry : dirtyByTable.entrySet()) {
+    		Collection<HeapPage> pages = entry.getValue().values();
+    		Database.getCatalog().getDbFile(entry.getKey()).writePages(pages);
+    		for (HeapPage page : pages) {
+    			page.markDirty(false, -1);
+    			page.setBeforeImage();
+    		}
     	}
     }
 
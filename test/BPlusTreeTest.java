@@ -201,6 +201,23 @@ public class BPlusTreeTest {
 
 	}
 
+	@Test
+	public void testSearchRange() {
+		BPlusTree bt = new BPlusTree(3);
+		for (int i = 100; i > 0; i--) {
+			bt.insert(new Entry(new IntField(i), i / 10));
+		}
+
+		ArrayList<Entry> range = bt.searchRange(new IntField(10), new IntField(20));
+		assertTrue(range.size() == 11);
+		for (int i = 0; i < range.size(); i++) {
+			assertTrue(range.get(i).getField().equals(new IntField(10 + i)));
+		}
+		assertTrue(bt.searchRange(null, new IntField(5)).size() == 5);
+		assertTrue(bt.searchRange(new IntField(96), null).size() == 5);
+		assertTrue(bt.searchRange(new IntField(50), new IntField(49)).isEmpty());
+	}
+
 	@Test
 	public void testSearchD3() {
 		// create a tree, insert a bunch of values
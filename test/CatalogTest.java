@@ -2,11 +2,19 @@ package test;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import org.junit.Test;
 
+import hw1.BulkLoader;
 import hw1.Catalog;
+import hw1.HeapFile;
+import hw1.IntField;
+import hw1.RelationalOperator;
+import hw1.TableStats;
+import hw1.Tuple;
 import hw1.TupleDesc;
 import hw1.Type;
 
@@ -31,4 +39,91 @@ public class CatalogTest {
 		}
 	}
 
+	@Test
+	public void testStableIds() {
+		Catalog c = new Catalog();
+		c.loadSchema("testfiles/test.txt");
+		int tableId = c.getTableId("test");
+		
+		//the same file gets the same id when it is opened again
+		Catalog c2 = new Catalog();
+		c2.loadSchema("testfiles/test.txt");
+		assertTrue(c2.getTableId("test") == tableId);
+		assertTrue(HeapFile.tableId(new File("testfiles/test.dat")) == tableId);
+		
+		//reloading replaces the table under the same id
+		c.loadSchema("testfiles/test.txt");
+		assertTrue(c.getTableId("test") == tableId);
+		int count = 0;
+		for(Iterator<Integer> it = c.tableIdIterator(); it.hasNext(); it.next()) {
+			count++;
+		}
+		assertTrue(count == 1);
+		
+		//adding the same file object again leaves it open
+		HeapFile hf = c.getDbFile(tableId);
+		int size = hf.getAllTuples().size();
+		c.addTable(hf, "test");
+		assertTrue(c.getDbFile(tableId).getAllTuples().size() == size);
+		//and so does moving it to another name
+		c.addTable(hf, "renamed");
+		assertTrue(c.getTableId("renamed") == tableId);
+		assertTrue(c.getDbFile(tableId).getAllTuples().size() == size);
+		try {
+			c.getTableId("test");
+			fail("the old name should be gone");
+		} catch(NoSuchElementException e) {
+		}
+		c.clear();
+		c2.clear();
+	}
+
+	@Test
+	public void testAnalyze() throws Exception {
+		Catalog c = new Catalog();
+		c.loadSchema("testfiles/A.txt");
+		TableStats stats = c.analyze(c.getTableId("A"));
+		assertTrue(stats.getNumTuples() == 8);
+		assertTrue(stats.getMin(0).equals(new IntField(1)));
+		assertTrue(stats.getMax(0).equals(new IntField(530)));
+		assertTrue(stats.getNumDistinct(0) == 4);
+		assertTrue(stats.getNumDistinct(1) == 8);
+		assertTrue(stats.estimateSelectivity(0, RelationalOperator.GT, new IntField(530)) == 0);
+		assertTrue(c.getTableStats(c.getTableId("A")) == stats);
+		
+		//a bigger table, to check the estimates
+		File f = File.createTempFile("stats", ".dat");
+		f.deleteOnExit();
+		TupleDesc td = new TupleDesc(new Type[] { Type.INT, Type.INT }, new String[] { "k", "v" });
+		HeapFile hf = new HeapFile(f, td);
+		BulkLoader loader = new BulkLoader(hf);
+		for (int i = 0; i < 20000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i % 1000));
+			t.setField(1, new IntField(i * 7));
+			loader.add(t);
+		}
+		loader.finish();
+		c.addTable(hf, "stats");
+		stats = c.analyze(hf.getId());
+		assertTrue(stats.getNumDistinct(0) == 1000);
+		assertTrue(Math.abs(stats.getNumDistinct(1) - 20000) < 2000);
+		assertTrue(Math.abs(stats.estimateSelectivity(0, RelationalOperator.LT, new IntField(250)) - 0.25) < 0.03);
+		assertTrue(Math.abs(stats.estimateSelectivity(0, RelationalOperator.EQ, new IntField(17)) - 0.001) < 0.001);
+		assertTrue(Math.abs(stats.estimateSelectivity(1, RelationalOperator.GTE, new IntField(70000)) - 0.5) < 0.03);
+		
+		//the statistics are collected again once the table has more than doubled
+		for (int i = 0; i < 25000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new IntField(i));
+			hf.addTuple(t);
+			if (i == 0) {
+				assertTrue(c.getTableStats(hf.getId()) == stats);
+			}
+		}
+		stats = c.getTableStats(hf.getId());
+		assertTrue(stats.getNumTuples() == 45000);
+		c.clear();
+	}
 }
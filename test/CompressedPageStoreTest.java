@@ -0,0 +1,194 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hw1.CompressedPageStore;
+import hw1.HeapFile;
+import hw1.PageStore;
+
+public class CompressedPageStoreTest {
+
+	private File f;
+	private File map;
+
+	@Before
+	public void setup() throws IOException {
+		f = File.createTempFile("compressed", ".dat");
+		map = new File(f.getPath() + ".pmap");
+		f.delete();
+	}
+
+	@After
+	public void cleanup() {
+		f.delete();
+		map.delete();
+	}
+
+	/**
+	 * Returns a page that compresses well: a few bytes that depend on seed,
+	 * then zeroes
+	 */
+	private static byte[] smallPage(int seed) {
+		byte[] page = new byte[HeapFile.PAGE_SIZE];
+		for (int i = 0; i < 16; i++) {
+			page[i] = (byte) (seed + i);
+		}
+		return page;
+	}
+
+	/**
+	 * Returns a page of random bytes, which does not compress at all
+	 */
+	private static byte[] largePage(int seed) {
+		byte[] page = new byte[HeapFile.PAGE_SIZE];
+		new Random(seed).nextBytes(page);
+		return page;
+	}
+
+	private static byte[] read(PageStore store, int pid) throws IOException {
+		byte[] page = new byte[HeapFile.PAGE_SIZE];
+		store.readPage(pid, page);
+		return page;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		CompressedPageStore store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		assertTrue(store.getNumPages() == 0);
+		store.writePage(0, ByteBuffer.wrap(smallPage(1)));
+		store.writePage(1, ByteBuffer.wrap(largePage(2)));
+		store.writePage(2, ByteBuffer.wrap(new byte[HeapFile.PAGE_SIZE]));
+		assertTrue(store.getNumPages() == 3);
+		assertArrayEquals(smallPage(1), read(store, 0));
+		assertArrayEquals(largePage(2), read(store, 1));
+		assertArrayEquals(new byte[HeapFile.PAGE_SIZE], read(store, 2));
+		// pages never written read as zeroes
+		assertArrayEquals(new byte[HeapFile.PAGE_SIZE], read(store, 7));
+		store.close();
+	}
+
+	@Test
+	public void testPageGrowth() throws Exception {
+		CompressedPageStore store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		store.writePage(0, ByteBuffer.wrap(smallPage(1)));
+		store.writePage(1, ByteBuffer.wrap(smallPage(2)));
+		store.force();
+
+		// page 0 no longer fits its sector and moves
+		store.writePage(0, ByteBuffer.wrap(largePage(3)));
+		store.force();
+		long length = f.length();
+		assertTrue(length > 2 * CompressedPageStore.SECTOR_SIZE);
+
+		// the sector page 0 left is reused once the map no longer points to it
+		store.writePage(2, ByteBuffer.wrap(smallPage(4)));
+		store.force();
+		assertTrue(f.length() == length);
+
+		// a page written again before the next force may stay where it is
+		store.writePage(3, ByteBuffer.wrap(largePage(5)));
+		store.writePage(3, ByteBuffer.wrap(largePage(6)));
+		store.force();
+		assertTrue(f.length() < length + 2 * HeapFile.PAGE_SIZE);
+
+		assertArrayEquals(largePage(3), read(store, 0));
+		assertArrayEquals(smallPage(2), read(store, 1));
+		assertArrayEquals(smallPage(4), read(store, 2));
+		assertArrayEquals(largePage(6), read(store, 3));
+		store.close();
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		CompressedPageStore store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		for (int pid = 0; pid < 10; pid++) {
+			store.writePage(pid, ByteBuffer.wrap(pid % 2 == 0 ? smallPage(pid) : largePage(pid)));
+		}
+		store.close();
+		assertTrue(map.exists());
+		assertFalse(new File(map.getPath() + ".tmp").exists());
+
+		store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		assertTrue(store.getNumPages() == 10);
+		for (int pid = 0; pid < 10; pid++) {
+			assertArrayEquals(pid % 2 == 0 ? smallPage(pid) : largePage(pid), read(store, pid));
+		}
+		// the free list is rebuilt from the map, so a rewrite after reopening
+		// does not disturb the other pages
+		store.writePage(4, ByteBuffer.wrap(largePage(40)));
+		store.close();
+		store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		assertArrayEquals(largePage(40), read(store, 4));
+		assertArrayEquals(largePage(5), read(store, 5));
+		store.close();
+	}
+
+	@Test
+	public void testUnforcedWritesKeepOldImages() throws Exception {
+		CompressedPageStore store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		store.writePage(0, ByteBuffer.wrap(smallPage(1)));
+		store.writePage(1, ByteBuffer.wrap(smallPage(2)));
+		store.force();
+		// grow page 0 but do not force: the map on disk still names its old
+		// sector, which must not have been written over
+		store.writePage(0, ByteBuffer.wrap(largePage(3)));
+
+		// a second store sees what a restart after a crash would see
+		CompressedPageStore after = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		assertArrayEquals(smallPage(1), read(after, 0));
+		assertArrayEquals(smallPage(2), read(after, 1));
+		store.close();
+		after.close();
+	}
+
+	@Test
+	public void testTruncate() throws Exception {
+		CompressedPageStore store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		store.writePage(0, ByteBuffer.wrap(smallPage(1)));
+		store.writePage(1, ByteBuffer.wrap(largePage(2)));
+		store.writePage(2, ByteBuffer.wrap(largePage(3)));
+		store.truncate(1);
+		assertTrue(store.getNumPages() == 1);
+		store.close();
+		long length = f.length();
+
+		// the dropped pages are gone after reopening, and their sectors are
+		// used again
+		store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		assertTrue(store.getNumPages() == 1);
+		assertArrayEquals(smallPage(1), read(store, 0));
+		store.writePage(1, ByteBuffer.wrap(largePage(4)));
+		store.close();
+		assertTrue(f.length() == length);
+	}
+
+	@Test
+	public void testConvertUncompressed() throws Exception {
+		PageStore plain = new PageStore(f, HeapFile.PAGE_SIZE);
+		for (int pid = 0; pid < 5; pid++) {
+			plain.writePage(pid, ByteBuffer.wrap(smallPage(pid)));
+		}
+		plain.close();
+		assertFalse(map.exists());
+
+		CompressedPageStore store = new CompressedPageStore(f, HeapFile.PAGE_SIZE);
+		assertTrue(map.exists());
+		assertTrue(store.getNumPages() == 5);
+		for (int pid = 0; pid < 5; pid++) {
+			assertArrayEquals(smallPage(pid), read(store, pid));
+		}
+		store.close();
+		assertTrue(f.length() < 5 * HeapFile.PAGE_SIZE);
+		assertFalse(Arrays.asList(f.getParentFile().list()).contains(f.getName() + ".compressing"));
+	}
+}
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Iterator;
 
 import static java.nio.file.StandardCopyOption.*;
@@ -14,10 +15,17 @@ import static java.nio.file.StandardCopyOption.*;
 import org.junit.Before;
 import org.junit.Test;
 
+import hw1.BulkLoader;
 import hw1.Catalog;
 import hw1.Database;
 import hw1.HeapFile;
+import hw1.HeapPage;
 import hw1.IntField;
+import hw1.PageFormat;
+import hw1.PageStore;
+import hw1.Predicate;
+import hw1.RelationalOperator;
+import hw1.StringDictionary;
 import hw1.StringField;
 import hw1.Tuple;
 import hw1.TupleDesc;
@@ -58,6 +66,23 @@ public class HeapFileTest {
 		assertTrue(hf.readPage(0) != null);
 	}
 
+	@Test
+	public void testOpenWithoutReading() {
+		// opening sizes the page directory but reads no page
+		assertTrue(hf.pages.size() == 1);
+		assertTrue(hf.pages.get(0) == null);
+		// scans read pages without keeping them
+		assertTrue(hf.getAllTuples().size() == 1);
+		assertTrue(hf.pages.get(0) == null);
+		// a page changed through the file stays resident
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(7));
+		t.setField(1, new StringField("seven"));
+		HeapPage hp = hf.addTuple(t);
+		assertTrue(hf.pages.get(0) == hp);
+		assertTrue(hf.getAllTuples().size() == 2);
+	}
+
 	@Test
 	public void testWrite() {
 		Tuple t = new Tuple(td);
@@ -79,6 +104,242 @@ public class HeapFileTest {
 		assertTrue(hf.getAllTuples().size() == 2);
 	}
 
+	/**
+	 * Returns a new page of f holding one tuple with the given value
+	 */
+	private HeapPage pageWith(HeapFile f, int pid, int value) throws Exception {
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(value));
+		t.setField(1, new StringField("v" + value));
+		return new HeapPage(pid, t, f.getId());
+	}
+
+	private int firstValue(HeapFile f, int pid) {
+		return ((IntField) f.readPage(pid).getTuple(0).getField(0)).getValue();
+	}
+
+	@Test
+	public void testReopenMapped() throws Exception {
+		File f = File.createTempFile("mapped", ".dat");
+		f.deleteOnExit();
+		HeapFile mhf = new HeapFile(f, td);
+		// enough pages for the first REGION_PAGES of them to be mapped
+		int numPages = PageStore.REGION_PAGES + 44;
+		for (int pid = 0; pid < numPages; pid++) {
+			mhf.writePage(pageWith(mhf, pid, pid));
+		}
+		// page 5 now lies in a mapped region, so this goes through the mapping
+		mhf.writePage(pageWith(mhf, 5, -5));
+		mhf.close();
+
+		mhf = new HeapFile(f, td);
+		assertTrue(mhf.getNumPages() == numPages);
+		assertTrue(firstValue(mhf, 5) == -5);
+		assertTrue(firstValue(mhf, PageStore.REGION_PAGES - 1) == PageStore.REGION_PAGES - 1);
+		assertTrue(firstValue(mhf, numPages - 1) == numPages - 1);
+		// and writes after reopening land in the mapping again
+		mhf.writePage(pageWith(mhf, 6, -6));
+		mhf.close();
+		mhf = new HeapFile(f, td);
+		assertTrue(firstValue(mhf, 6) == -6);
+		assertTrue(firstValue(mhf, 7) == 7);
+		mhf.close();
+	}
+
+	@Test
+	public void testWritePagesBatches() throws Exception {
+		File f = File.createTempFile("batch", ".dat");
+		File map = new File(f.getPath() + ".pmap");
+		f.deleteOnExit();
+		map.deleteOnExit();
+		HeapFile bhf = new HeapFile(f, td, PageFormat.FIXED, true);
+		// more pages than one write buffer holds, so they go out in two batches
+		int numPages = PageStore.REGION_PAGES + 10;
+		ArrayList<HeapPage> ps = new ArrayList<HeapPage>();
+		for (int pid = 0; pid < numPages; pid++) {
+			ps.add(pageWith(bhf, pid, pid));
+		}
+		bhf.writePages(ps);
+
+		// a compressed file's pages are only reachable once it has been
+		// forced, so a second handle sees them only if writePages synced
+		HeapFile other = new HeapFile(f, td, PageFormat.FIXED, true);
+		assertTrue(other.getNumPages() == numPages);
+		assertTrue(firstValue(other, 0) == 0);
+		assertTrue(firstValue(other, PageStore.REGION_PAGES) == PageStore.REGION_PAGES);
+		assertTrue(firstValue(other, numPages - 1) == numPages - 1);
+		other.close();
+		bhf.close();
+	}
+
+	@Test
+	public void testFreeSpaceReuse() throws Exception {
+		// fill the first page and spill onto a second
+		for (int i = 0; i < 30; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new StringField("v" + i));
+			hf.addTuple(t);
+		}
+		assertTrue(hf.getNumPages() == 2);
+
+		hf.deleteTuple(hf.getPage(0).getTuple(3));
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(100));
+		t.setField(1, new StringField("v100"));
+		// the slot freed on the first page is used before the second page
+		assertTrue(hf.addTuple(t).getId() == 0);
+		assertTrue(hf.getNumPages() == 2);
+		assertTrue(hf.getPage(0).getTuple(3).getField(0).equals(new IntField(100)));
+	}
+
+	@Test
+	public void testImportCsv() throws Exception {
+		File csv = File.createTempFile("import", ".csv");
+		csv.deleteOnExit();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append(i).append(",name").append(i).append("\n");
+		}
+		Files.write(csv.toPath(), sb.toString().getBytes());
+
+		assertTrue(BulkLoader.importCsv(hf, csv, 2) == 100);
+		// the existing page plus 100 tuples at 30 per page
+		assertTrue(hf.getNumPages() == 5);
+		assertTrue(hf.getAllTuples().size() == 101);
+		Tuple last = hf.readPage(4).getTuple(9);
+		assertTrue(last.getField(0).equals(new IntField(99)));
+		assertTrue(last.getField(1).equals(new StringField("name99")));
+	}
+
+	@Test
+	public void testImportCsvQuoted() throws Exception {
+		File csv = File.createTempFile("quoted", ".csv");
+		csv.deleteOnExit();
+		Files.write(csv.toPath(), ("1,\"Smith, John\"\n\n2, \"say \"\"hi\"\"\" \n3,plain\n").getBytes());
+
+		assertTrue(BulkLoader.importCsv(hf, csv, 2) == 3);
+		ArrayList<Tuple> tuples = hf.getAllTuples();
+		assertTrue(tuples.size() == 4);
+		assertTrue(tuples.get(1).getField(1).equals(new StringField("Smith, John")));
+		assertTrue(tuples.get(2).getField(0).equals(new IntField(2)));
+		assertTrue(tuples.get(2).getField(1).equals(new StringField("say \"hi\"")));
+		assertTrue(tuples.get(3).getField(1).equals(new StringField("plain")));
+	}
+
+	@Test
+	public void testImportCsvBadNumber() throws Exception {
+		File csv = File.createTempFile("bad", ".csv");
+		csv.deleteOnExit();
+		Files.write(csv.toPath(), "1,a\n\n3x,c\n4,d\n".getBytes());
+
+		try {
+			BulkLoader.importCsv(hf, csv, 2);
+			fail("a bad INT should not load");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("line 3: Field 1 is not an INT"));
+		}
+
+		// a bad line after whole batches were written leaves nothing behind,
+		// even once the file is opened again
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < 9000; i++) {
+			lines.append(i).append(",row").append(i).append('\n');
+		}
+		lines.append("x,bad\n");
+		Files.write(csv.toPath(), lines.toString().getBytes());
+		try {
+			BulkLoader.importCsv(hf, csv, 2);
+			fail("a bad INT should not load");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("line 9001"));
+		}
+		assertTrue(hf.getNumPages() == 1);
+		HeapFile reopened = new HeapFile(hf.getFile(), td);
+		assertTrue(reopened.getNumPages() == 1);
+		assertTrue(reopened.getAllTuples().size() == 1);
+		reopened.close();
+		try {
+			BulkLoader.parseCsvLine(td, "5,\"open");
+			fail("an unclosed quote should not parse");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("closing quote"));
+		}
+	}
+
+	@Test
+	public void testParallelSelect() throws Exception {
+		BulkLoader loader = new BulkLoader(hf);
+		for (int i = 0; i < 3000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new StringField("name" + i));
+			loader.add(t);
+		}
+		loader.finish();
+
+		ArrayList<Tuple> expected = hf.select(0, RelationalOperator.GTE, new IntField(1500));
+		ArrayList<Tuple> ordered = hf.parallelSelect(Predicate.of(0, RelationalOperator.GTE, new IntField(1500)), null,
+				true);
+		assertTrue(expected.size() == 1500);
+		assertTrue(ordered.size() == expected.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertTrue(ordered.get(i).getField(0).equals(expected.get(i).getField(0)));
+		}
+		assertTrue(hf.parallelSelect(null, null, false).size() == 3001);
+	}
+
+	@Test
+	public void testDictionary() throws Exception {
+		File f = File.createTempFile("dict", ".dat");
+		File dict = new File(f.getPath() + ".dict1");
+		f.deleteOnExit();
+		dict.deleteOnExit();
+		HeapFile dhf = new HeapFile(f, td, PageFormat.FIXED, false, true);
+		String[] values = { "b", "a", "c" };
+		for (int i = 0; i < 300; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new StringField(values[i % 3]));
+			dhf.writePage(dhf.addTuple(t));
+		}
+		dhf.close();
+
+		dhf = new HeapFile(f, td, PageFormat.FIXED, false, true);
+		// strings are stored as 4 byte codes, so far more than 30 fit a page
+		assertTrue(dhf.getNumPages() == 1);
+		assertTrue(dhf.getDictionary(1).size() == 3);
+		assertTrue(dhf.getAllTuples().get(1).getField(1).equals(new StringField("a")));
+		assertTrue(dhf.select(1, RelationalOperator.EQ, new StringField("c")).size() == 100);
+		assertTrue(dhf.select(1, RelationalOperator.LT, new StringField("b")).size() == 100);
+		assertTrue(dhf.select(new Predicate[] { new Predicate(1, RelationalOperator.EQ, new StringField("c")),
+				new Predicate(0, RelationalOperator.LT, new IntField(150)) }).size() == 50);
+		dhf.close();
+	}
+
+	@Test
+	public void testDictionaryBoundAfterAdd() throws Exception {
+		File f = File.createTempFile("bound", ".dict");
+		f.delete();
+		f.deleteOnExit();
+		StringDictionary dict = new StringDictionary(f);
+		dict.encode("a");
+		dict.encode("c");
+		StringDictionary.CodeBound lt = dict.bound(RelationalOperator.LT, "b");
+		StringDictionary.CodeBound eq = dict.bound(RelationalOperator.EQ, "d");
+		assertTrue(lt.matches(dict.lookup("a")));
+		assertFalse(lt.matches(dict.lookup("c")));
+
+		// values added after the bounds were made sort between and after the
+		// old ones, and are still compared correctly
+		int bb = dict.encode("bb");
+		int d = dict.encode("d");
+		assertFalse(lt.matches(bb));
+		assertTrue(lt.matches(dict.lookup("a")));
+		assertTrue(eq.matches(d));
+		assertFalse(eq.matches(bb));
+	}
+
 	@Test
 	public void testRemove() {
 		Tuple t = new Tuple(td);
@@ -4,8 +4,10 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.junit.Before;
@@ -16,6 +18,9 @@ import hw1.Database;
 import hw1.HeapFile;
 import hw1.HeapPage;
 import hw1.IntField;
+import hw1.PageFormat;
+import hw1.Predicate;
+import hw1.RelationalOperator;
 import hw1.StringField;
 import hw1.Tuple;
 import hw1.TupleDesc;
@@ -56,6 +61,17 @@ public class HeapPageTest {
 		}
 	}
 
+	@Test
+	public void testReadFields() {
+		Iterator<Tuple> it = hp.iterator();
+		assertTrue(it.hasNext());
+		Tuple t = it.next();
+		assertTrue(t.getField(1).equals(new StringField("hi")));
+		assertTrue(t.getField(0).equals(new IntField(530)));
+		assertTrue(t.getPid() == 0);
+		assertTrue(t.getId() == 0);
+	}
+
 	@Test
 	public void testAddTuple() {
 		Tuple t = new Tuple(td);
@@ -82,6 +98,156 @@ public class HeapPageTest {
 
 	}
 
+	@Test
+	public void testWriteTo() throws Exception {
+		// a page nobody decoded is copied back byte for byte
+		byte[] stored = Arrays.copyOf(Files.readAllBytes(new File("testfiles/test.dat").toPath()), HeapFile.PAGE_SIZE);
+		assertArrayEquals(stored, hp.getPageData());
+
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(131));
+		t.setField(1, new StringField("by"));
+		hp.addTuple(t);
+
+		// encode into the middle of a reused buffer still holding older bytes
+		ByteBuffer buf = ByteBuffer.allocateDirect(3 * HeapFile.PAGE_SIZE);
+		while (buf.hasRemaining()) {
+			buf.put((byte) 0x5a);
+		}
+		buf.position(HeapFile.PAGE_SIZE);
+		hp.writeTo(buf);
+		assertTrue(buf.position() == 2 * HeapFile.PAGE_SIZE);
+		assertTrue(buf.get(2 * HeapFile.PAGE_SIZE) == 0x5a);
+
+		byte[] written = new byte[HeapFile.PAGE_SIZE];
+		buf.position(HeapFile.PAGE_SIZE);
+		buf.get(written);
+		assertArrayEquals(hp.getPageData(), written);
+		HeapPage copy = new HeapPage(0, written, hf.getId(), td);
+		assertTrue(copy.getNumOccupied() == 2);
+		assertTrue(copy.getTuple(0).getField(1).equals(new StringField("hi")));
+		assertTrue(copy.getTuple(1).getField(0).equals(new IntField(131)));
+	}
+
+	@Test
+	public void testOccupiedSlots() throws Exception {
+		assertTrue(hp.getNumOccupied() == 1);
+		assertTrue(hp.nextOccupiedSlot(0) == 0);
+		assertTrue(hp.nextOccupiedSlot(1) == -1);
+
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(131));
+		t.setField(1, new StringField("by"));
+		hp.addTuple(t);
+
+		assertTrue(hp.getNumOccupied() == 2);
+		assertTrue(hp.nextOccupiedSlot(1) == 1);
+		assertTrue(hp.getTuple(1).getField(0).equals(new IntField(131)));
+		assertTrue(hp.nextOccupiedSlot(2) == -1);
+	}
+
+	@Test
+	public void testSlottedRoundTrip() throws Exception {
+		HeapPage sp = PageFormat.SLOTTED.newPage(0, new byte[HeapFile.PAGE_SIZE], hf.getId(), td);
+		int added = 0;
+		while (true) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(added));
+			t.setField(1, new StringField("row" + added));
+			if (!sp.hasRoomFor(t)) {
+				break;
+			}
+			sp.addTuple(t);
+			added++;
+		}
+		// short strings should pack far more rows than the fixed layout's 30
+		assertTrue(added > 200);
+
+		HeapPage copy = PageFormat.SLOTTED.newPage(0, sp.getPageData(), hf.getId(), td);
+		assertTrue(copy.getNumOccupied() == added);
+		Tuple last = copy.getTuple(added - 1);
+		assertTrue(last.getField(0).equals(new IntField(added - 1)));
+		assertTrue(last.getField(1).equals(new StringField("row" + (added - 1))));
+	}
+
+	@Test
+	public void testSlottedRecordGrows() throws Exception {
+		HeapPage sp = PageFormat.SLOTTED.newPage(0, new byte[HeapFile.PAGE_SIZE], hf.getId(), td);
+		for (int i = 0; i < 3; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new StringField("row" + i));
+			sp.addTuple(t);
+		}
+		char[] chars = new char[100];
+		Arrays.fill(chars, 'x');
+		String longer = new String(chars);
+
+		// a string lengthened in place is written in full, next to its
+		// neighbours
+		HeapPage copy = PageFormat.SLOTTED.newPage(0, sp.getPageData(), hf.getId(), td);
+		copy.getTuple(1).setField(1, new StringField(longer));
+		copy = PageFormat.SLOTTED.newPage(0, copy.getPageData(), hf.getId(), td);
+		assertTrue(copy.getTuple(0).getField(1).equals(new StringField("row0")));
+		assertTrue(copy.getTuple(1).getField(1).equals(new StringField(longer)));
+		assertTrue(copy.getTuple(2).getField(1).equals(new StringField("row2")));
+
+		// on a full page it no longer fits, and the page refuses to be written
+		sp = PageFormat.SLOTTED.newPage(0, new byte[HeapFile.PAGE_SIZE], hf.getId(), td);
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(0));
+		t.setField(1, new StringField("row"));
+		while (sp.hasRoomFor(t)) {
+			sp.addTuple(t);
+			t = new Tuple(td);
+			t.setField(0, new IntField(0));
+			t.setField(1, new StringField("row"));
+		}
+		copy = PageFormat.SLOTTED.newPage(0, sp.getPageData(), hf.getId(), td);
+		copy.getTuple(0).setField(1, new StringField(longer));
+		try {
+			copy.getPageData();
+			fail("records bigger than the page were written");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void testPaxRoundTrip() throws Exception {
+		HeapPage pp = PageFormat.PAX.newPage(0, new byte[HeapFile.PAGE_SIZE], hf.getId(), td);
+		int added = 0;
+		while (pp.hasEmptySlot()) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(1000 + 3 * added));
+			t.setField(1, new StringField("row" + added));
+			pp.addTuple(t);
+			added++;
+		}
+
+		HeapPage copy = PageFormat.PAX.newPage(0, pp.getPageData(), hf.getId(), td);
+		assertTrue(copy.getNumOccupied() == added);
+		assertTrue(copy.matches(5, 0, RelationalOperator.EQ, new IntField(1015)));
+		assertFalse(copy.matches(5, 0, RelationalOperator.GT, new IntField(1015)));
+		assertTrue(copy.getIntColumn(0)[added - 1] == 1000 + 3 * (added - 1));
+
+		copy.deleteTuple(copy.getTuple(2));
+		copy = PageFormat.PAX.newPage(0, copy.getPageData(), hf.getId(), td);
+		assertTrue(copy.getNumOccupied() == added - 1);
+		assertFalse(copy.slotOccupied(2));
+		Tuple t = copy.getTuple(3);
+		assertTrue(t.getField(0).equals(new IntField(1009)));
+		assertTrue(t.getField(1).equals(new StringField("row3")));
+
+		// an INT changed in place on an otherwise untouched page is kept
+		copy = PageFormat.PAX.newPage(0, copy.getPageData(), hf.getId(), td);
+		copy.getTuple(4).setField(0, new IntField(-7));
+		assertTrue(copy.getIntColumn(0)[4] == -7);
+		assertTrue(copy.getIntColumn(0)[5] == 1015);
+		copy = PageFormat.PAX.newPage(0, copy.getPageData(), hf.getId(), td);
+		assertTrue(copy.getTuple(4).getField(0).equals(new IntField(-7)));
+		assertTrue(copy.getTuple(5).getField(0).equals(new IntField(1015)));
+	}
+
 	@Test
 	public void testDelete() {
 		Tuple t = new Tuple(td);
@@ -104,4 +270,28 @@ public class HeapPageTest {
 
 	}
 
+	@Test
+	public void testProjectedTuple() {
+		Tuple t = hp.getTuple(0, new int[] { 1 }, td.project(new int[] { 1 }));
+		assertTrue(t.getDesc().numFields() == 1);
+		assertTrue(t.getField(0).equals(new StringField("hi")));
+		assertTrue(t.getPid() == 0);
+		assertTrue(t.getId() == 0);
+	}
+
+	@Test
+	public void testMatchesPredicates() {
+		assertTrue(hp.matches(0, new Predicate[] { new Predicate(0, RelationalOperator.EQ, new IntField(530)),
+				new Predicate(1, RelationalOperator.EQ, new StringField("hi")) }));
+		assertTrue(hp.matches(0, new Predicate[] { new Predicate(1, RelationalOperator.GT, new StringField("h")) }));
+		assertTrue(hp.matches(0, new Predicate[] { new Predicate(1, RelationalOperator.LT, new StringField("hj")) }));
+		assertFalse(hp.matches(0, new Predicate[] { new Predicate(1, RelationalOperator.GTE, new StringField("hia")) }));
+		assertFalse(hp.matches(0, new Predicate[] { new Predicate(0, RelationalOperator.EQ, new IntField(530)),
+				new Predicate(1, RelationalOperator.NOTEQ, new StringField("hi")) }));
+
+		// a field changed in memory is compared as changed, not as stored
+		hp.getTuple(0).setField(1, new StringField("zz"));
+		assertTrue(hp.matches(0, new Predicate[] { new Predicate(1, RelationalOperator.EQ, new StringField("zz")) }));
+	}
+
 }
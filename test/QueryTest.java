@@ -12,9 +12,20 @@ import org.junit.Test;
 
 import hw1.Catalog;
 import hw1.Database;
+import hw1.HeapFile;
+import hw1.BulkLoader;
 import hw1.IntField;
+import hw1.Predicate;
+import hw1.RelationalOperator;
+import hw1.Tuple;
+import hw1.TupleDesc;
+import hw1.Type;
 import hw2.Query;
 import hw2.Relation;
+import hw2.ScanIterator;
+import hw2.SortIterator;
+import hw2.TupleIterator;
+import hw3.Index;
 
 
 
@@ -102,4 +113,171 @@ public class QueryTest {
 		assertTrue(r.getDesc().getSize() == 8);
 	}
 	
+	@Test
+	public void testPlan() {
+		TupleIterator plan = new Query("SELECT c1, a2 FROM test JOIN A ON test.c1 = a.a1 WHERE a2 > 1").plan();
+		assertTrue(plan.getDesc().numFields() == 2);
+		//the plan can be run more than once
+		for(int run = 0; run < 2; run++) {
+			plan.open();
+			int count = 0;
+			for(Tuple t = plan.next(); t != null; t = plan.next()) {
+				assertTrue(((IntField)t.getField(0)).getValue() == 530);
+				count++;
+			}
+			plan.close();
+			assertTrue(count == 4);
+		}
+	}
+	
+	@Test
+	public void testOrderBy() {
+		Relation r = new Query("SELECT a1, a2 FROM A ORDER BY a2 DESC").execute();
+		assertTrue(r.getTuples().size() == 8);
+		for(int i = 0; i < 8; i++) {
+			assertTrue(((IntField)r.getTuples().get(i).getField(1)).getValue() == 8 - i);
+		}
+		
+		//a column that is not selected
+		r = new Query("SELECT a1 FROM A ORDER BY a2 DESC").execute();
+		assertTrue(r.getDesc().numFields() == 1);
+		assertTrue(((IntField)r.getTuples().get(0).getField(0)).getValue() == 3);
+		
+		r = new Query("SELECT a1, a2 FROM A ORDER BY a1, a2 DESC").execute();
+		assertTrue(((IntField)r.getTuples().get(0).getField(0)).getValue() == 1);
+		assertTrue(((IntField)r.getTuples().get(3).getField(1)).getValue() == 5);
+		assertTrue(((IntField)r.getTuples().get(7).getField(1)).getValue() == 1);
+	}
+	
+	@Test
+	public void testExternalSort() {
+		HeapFile hf = c.getDbFile(c.getTableId("A"));
+		//room for three tuples, so the eight tuples are sorted in three runs on disk
+		TupleIterator sort = new SortIterator(new ScanIterator(hf), new int[] {1}, new boolean[] {false}, 3 * hf.getTupleDesc().getSize());
+		sort.open();
+		int count = 0;
+		for(Tuple t = sort.next(); t != null; t = sort.next()) {
+			assertTrue(((IntField)t.getField(1)).getValue() == 8 - count);
+			count++;
+		}
+		sort.close();
+		assertTrue(count == 8);
+	}
+	
+	@Test
+	public void testConjunction() {
+		Relation r = new Query("SELECT a1, a2 FROM A WHERE a1 = 530 AND a2 > 2").execute();
+		assertTrue(r.getTuples().size() == 3);
+		for(Tuple t: r.getTuples()) {
+			assertTrue(((IntField)t.getField(0)).getValue() == 530);
+			assertTrue(((IntField)t.getField(1)).getValue() > 2);
+		}
+		
+		r = new Query("SELECT SUM(a2) FROM A WHERE a1 = 530 AND a2 > 2").execute();
+		assertTrue(((IntField)r.getTuples().get(0).getField(0)).getValue() == 12);
+	}
+	
+	@Test
+	public void testJoinPushdown() {
+		Relation r = new Query("SELECT c1, c2, a1, a2 FROM test JOIN A ON test.c1 = a.a1 WHERE c1 = 530 AND a2 < 3").execute();
+		assertTrue(r.getTuples().size() == 2);
+		for(Tuple t: r.getTuples()) {
+			assertTrue(((IntField)t.getField(3)).getValue() < 3);
+		}
+	}
+	
+	@Test
+	public void testJoinOrder() throws Exception {
+		//test is the smaller side, so it is joined first, but the columns
+		//still come out in the order of the FROM list
+		Relation r = new Query("SELECT * FROM A JOIN test ON a.a1 = test.c1").execute();
+		assertTrue(r.getTuples().size() == 5);
+		assertTrue(r.getDesc().getFieldName(0).equals("a1"));
+		assertTrue(r.getDesc().getFieldName(2).equals("c1"));
+		
+		File f = File.createTempFile("joinB", ".dat");
+		f.deleteOnExit();
+		TupleDesc td = new TupleDesc(new Type[] {Type.INT, Type.INT}, new String[] {"b1", "b2"});
+		HeapFile hf = new HeapFile(f, td);
+		BulkLoader loader = new BulkLoader(hf);
+		for(int i = 0; i < 2000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new IntField(i % 4));
+			loader.add(t);
+		}
+		loader.finish();
+		c.addTable(hf, "B");
+		
+		r = new Query("SELECT b1, a2, c2 FROM B JOIN A ON b.b1 = a.a1 JOIN test ON a.a1 = test.c1").execute();
+		assertTrue(r.getTuples().size() == 5);
+		for(Tuple t: r.getTuples()) {
+			assertTrue(((IntField)t.getField(0)).getValue() == 530);
+		}
+		r = new Query("SELECT * FROM B JOIN A ON b.b1 = a.a1 JOIN test ON a.a1 = test.c1 WHERE b2 = 2").execute();
+		assertTrue(r.getTuples().size() == 5);
+		assertTrue(r.getDesc().getFieldName(0).equals("b1"));
+		assertTrue(r.getDesc().getFieldName(4).equals("c1"));
+	}
+	
+	@Test
+	public void testParallelScan() throws Exception {
+		File f = File.createTempFile("scanP", ".dat");
+		f.deleteOnExit();
+		TupleDesc td = new TupleDesc(new Type[] {Type.INT, Type.INT}, new String[] {"p1", "p2"});
+		HeapFile hf = new HeapFile(f, td);
+		BulkLoader loader = new BulkLoader(hf);
+		//enough pages for the scan to be split over several threads
+		for(int i = 0; i < 70000; i++) {
+			Tuple t = new Tuple(td);
+			t.setField(0, new IntField(i));
+			t.setField(1, new IntField(i % 4));
+			loader.add(t);
+		}
+		loader.finish();
+		assertTrue(hf.getNumPages() > 2 * ScanIterator.CHUNK_PAGES);
+		c.addTable(hf, "P");
+		
+		//nothing but the scan is left to run, so it is read in one go
+		assertTrue(new Query("SELECT * FROM P WHERE p2 = 1").plan() instanceof ScanIterator);
+		Relation r = new Query("SELECT * FROM P WHERE p2 = 1").execute();
+		assertTrue(r.getTuples().size() == 17500);
+		for(int i = 0; i < 17500; i++) {
+			assertTrue(((IntField)r.getTuples().get(i).getField(0)).getValue() == 4 * i + 1);
+		}
+		r = new Query("SELECT p2 FROM P").execute();
+		assertTrue(r.getDesc().numFields() == 1);
+		assertTrue(r.getTuples().size() == 70000);
+		assertTrue(((IntField)r.getTuples().get(69999).getField(0)).getValue() == 3);
+	}
+	
+	@Test
+	public void testIndexScan() {
+		int tableId = c.getTableId("A");
+		HeapFile hf = c.getDbFile(tableId);
+		Index index = c.createIndex(tableId, "a1");
+		Predicate[] eq = new Predicate[] {new Predicate(0, RelationalOperator.EQ, new IntField(530))};
+		assertTrue(index.lookup(eq).length == 1);
+		assertTrue(index.lookup(new Predicate[] {new Predicate(0, RelationalOperator.GT, new IntField(530))}).length == 0);
+		assertTrue(index.lookup(new Predicate[] {new Predicate(0, RelationalOperator.NOTEQ, new IntField(530))}) == null);
+		
+		Relation r = new Query("SELECT a1, a2 FROM A WHERE a1 = 530 AND a2 > 2").execute();
+		assertTrue(r.getTuples().size() == 3);
+		
+		//the index follows tuples as they are added and deleted
+		Tuple t = new Tuple(hf.getTupleDesc());
+		t.setField(0, new IntField(9999));
+		t.setField(1, new IntField(1));
+		int pid = hf.addTuple(t).getId();
+		int[] pages = index.lookup(new Predicate[] {new Predicate(0, RelationalOperator.GTE, new IntField(9999))});
+		assertTrue(pages.length == 1 && pages[0] == pid);
+		hf.deleteTuple(t);
+		assertTrue(index.lookup(new Predicate[] {new Predicate(0, RelationalOperator.GTE, new IntField(9999))}).length == 0);
+		
+		//the primary key is indexed from the time its table is added
+		assertTrue(c.getDbFile(c.getTableId("test")).getIndex(0) != null);
+		r = new Query("SELECT c1, c2 FROM test WHERE c1 = 530").execute();
+		assertTrue(r.getTuples().size() == 1);
+	}
+	
 }
@@ -12,13 +12,18 @@ import org.junit.Before;
 import org.junit.Test;
 
 import hw2.AggregateOperator;
+import hw2.Aggregator;
 import hw1.Catalog;
 import hw1.Database;
 import hw1.HeapFile;
+import hw1.HeapPage;
 import hw1.IntField;
 import hw2.Relation;
 import hw1.RelationalOperator;
+import hw1.StringField;
+import hw1.Tuple;
 import hw1.TupleDesc;
+import hw1.Type;
 
 public class RelationTest {
 
@@ -84,6 +89,137 @@ public class RelationTest {
 		assert(tr.getDesc().getSize() == 141);
 	}
 	
+	@Test
+	public void testJoinFields() {
+		Relation tr = new Relation(testhf.getAllTuples(), testtd);
+		Relation ar = new Relation(ahf.getAllTuples(), atd);
+		tr = tr.join(ar, 0, 0);
+		
+		for(Tuple t: tr.getTuples()) {
+			assertTrue(t.getField(1) instanceof StringField);
+			assertTrue(t.getField(0).equals(t.getField(2)));
+		}
+		
+		tr = tr.select(1, RelationalOperator.EQ, new StringField("hi"));
+		assertTrue(tr.getTuples().size() == 5);
+	}
+	
+	@Test
+	public void testNonAsciiStrings() throws Exception {
+		HeapPage hp = new HeapPage(0, new byte[HeapFile.PAGE_SIZE], testhf.getId(), testtd);
+		String[] values = {"caf\u00e9", "cafe"};
+		for(int i = 0; i < values.length; i++) {
+			Tuple t = new Tuple(testtd);
+			t.setField(0, new IntField(i));
+			t.setField(1, new StringField(values[i]));
+			hp.addTuple(t);
+		}
+		hp = new HeapPage(0, hp.getPageData(), testhf.getId(), testtd);
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for(int s = 0; s < values.length; s++) {
+			tuples.add(hp.getTuple(s));
+		}
+		
+		//the page, its tuples and batches of them read the stored byte as the same character
+		StringField above = new StringField("caf\u00ff");
+		assertTrue(tuples.get(0).getField(1).equals(new StringField(values[0])));
+		assertFalse(hp.matches(0, 1, RelationalOperator.GT, above));
+		Relation r = new Relation(tuples, testtd);
+		assertTrue(r.select(1, RelationalOperator.GT, above).getTuples().size() == 0);
+		assertTrue(r.select(1, RelationalOperator.EQ, new StringField(values[0])).getTuples().size() == 1);
+		ArrayList<Integer> fields = new ArrayList<Integer>();
+		fields.add(1);
+		assertTrue(r.project(fields).getTuples().get(0).getField(0).equals(new StringField(values[0])));
+	}
+	
+	@Test
+	public void testHashJoin() {
+		TupleDesc ltd = new TupleDesc(new Type[] {Type.INT, Type.STRING}, new String[] {"k", "s"});
+		TupleDesc rtd = new TupleDesc(new Type[] {Type.STRING, Type.INT}, new String[] {"s2", "k2"});
+		ArrayList<Tuple> left = new ArrayList<>();
+		for(int i = 0; i < 3000; i++) {
+			Tuple t = new Tuple(ltd);
+			t.setField(0, new IntField(i % 100));
+			t.setField(1, new StringField("l" + (i % 7)));
+			left.add(t);
+		}
+		ArrayList<Tuple> right = new ArrayList<>();
+		for(int i = 0; i < 500; i++) {
+			Tuple t = new Tuple(rtd);
+			t.setField(0, new StringField("l" + (i % 5)));
+			t.setField(1, new IntField(i % 200));
+			right.add(t);
+		}
+		
+		//INT keys: each of the 100 left keys appears 30 times, and 3 times on the right
+		Relation r = new Relation(left, ltd).join(new Relation(right, rtd), 0, 1);
+		assertTrue(r.getTuples().size() == 100 * 30 * 3);
+		for(Tuple t: r.getTuples()) {
+			assertTrue(t.getField(0).equals(t.getField(3)));
+		}
+		
+		//STRING keys: l0 to l4 match, each about 3000 / 7 times on the left and 100 on the right
+		r = new Relation(left, ltd).join(new Relation(right, rtd), 1, 0);
+		int expected = 0;
+		for(int i = 0; i < 3000; i++) {
+			if(i % 7 < 5) {
+				expected += 100;
+			}
+		}
+		assertTrue(r.getTuples().size() == expected);
+		for(Tuple t: r.getTuples()) {
+			assertTrue(t.getField(1).equals(t.getField(2)));
+		}
+	}
+	
+	@Test
+	public void testManyGroups() {
+		TupleDesc gtd = new TupleDesc(new Type[] {Type.STRING, Type.INT}, new String[] {"g", "v"});
+		ArrayList<Tuple> tuples = new ArrayList<>();
+		for(int i = 0; i < 20000; i++) {
+			Tuple t = new Tuple(gtd);
+			t.setField(0, new StringField("g" + (i % 5000)));
+			t.setField(1, new IntField(i));
+			tuples.add(t);
+		}
+		Aggregator agg = new Aggregator(AggregateOperator.MIN, true, gtd);
+		for(Tuple t: tuples) {
+			agg.merge(t);
+		}
+		ArrayList<Tuple> results = agg.getResults();
+		assertTrue(results.size() == 5000);
+		//groups come out in the order they were first seen
+		for(int g = 0; g < 5000; g++) {
+			assertTrue(results.get(g).getField(0).equals(new StringField("g" + g)));
+			assertTrue(results.get(g).getField(1).equals(new IntField(g)));
+		}
+		
+		Relation r = new Relation(tuples, gtd).aggregate(AggregateOperator.AVG, true);
+		assertTrue(r.getTuples().size() == 5000);
+		assertTrue(r.getTuples().get(7).getField(1).equals(new IntField(7 + 7500)));
+	}
+	
+	@Test
+	public void testCombine() {
+		TupleDesc gtd = new TupleDesc(new Type[] {Type.INT, Type.INT}, new String[] {"g", "v"});
+		Aggregator first = new Aggregator(AggregateOperator.AVG, true, gtd);
+		Aggregator second = new Aggregator(AggregateOperator.AVG, true, gtd);
+		for(int i = 0; i < 1000; i++) {
+			Tuple t = new Tuple(gtd);
+			t.setField(0, new IntField(i % 10));
+			t.setField(1, new IntField(i));
+			(i < 300 ? first : second).merge(t);
+		}
+		first.combine(second);
+		ArrayList<Tuple> results = first.getResults();
+		assertTrue(results.size() == 10);
+		//AVG is carried as a sum and a count, not averaged twice
+		for(int g = 0; g < 10; g++) {
+			assertTrue(results.get(g).getField(0).equals(new IntField(g)));
+			assertTrue(results.get(g).getField(1).equals(new IntField(g + 495)));
+		}
+	}
+	
 	@Test
 	public void testRename() {
 		Relation ar = new Relation(ahf.getAllTuples(), atd);
@@ -12,15 +12,20 @@ import org.junit.Before;
 import org.junit.Test;
 
 import hw4.BufferPool;
+import hw1.BulkLoader;
 import hw1.Catalog;
 import hw1.Database;
 import hw1.HeapFile;
 import hw1.HeapPage;
 import hw1.IntField;
+import hw1.PageFormat;
 import hw1.StringField;
 import hw4.Permissions;
+import hw1.Predicate;
+import hw1.RelationalOperator;
 import hw1.Tuple;
 import hw1.TupleDesc;
+import hw3.Index;
 
 public class TransactionTest {
 	
@@ -109,4 +114,117 @@ public class TransactionTest {
 		assertFalse(it.hasNext());
 	}
 
+	private Tuple tuple(int value) {
+		Tuple t = new Tuple(td);
+		t.setField(0, new IntField(value));
+		t.setField(1, new StringField("v" + value));
+		return t;
+	}
+
+	@Test
+	public void testInsertIntoLargeTable() throws Exception {
+		File f = File.createTempFile("large", ".dat");
+		f.deleteOnExit();
+		// 60 full pages, more than the buffer pool holds
+		HeapFile large = new HeapFile(f, td);
+		BulkLoader loader = new BulkLoader(large);
+		for (int i = 0; i < 60 * 30; i++) {
+			loader.add(tuple(i));
+		}
+		loader.finish();
+		large.close();
+
+		// reopened, its free-space map counts every page as having room
+		large = new HeapFile(f, td, PageFormat.FIXED);
+		c.addTable(large, "large");
+		int largeId = large.getId();
+		Tuple t = tuple(-1);
+		bp.insertTuple(0, largeId, t);
+		assertTrue(t.getPid() == 60);
+		// the full pages it looked at are neither locked nor kept
+		assertFalse(bp.holdsLock(0, largeId, 0));
+		assertFalse(bp.holdsLock(0, largeId, 59));
+		bp.transactionComplete(0, true);
+
+		Tuple stored = large.readPage(60).getTuple(0);
+		assertTrue(stored.getField(0).equals(new IntField(-1)));
+	}
+
+	@Test
+	public void testAbortFreesSlots() throws Exception {
+		// fill the 29 empty slots of the only page, then abort
+		for (int i = 0; i < 29; i++) {
+			bp.insertTuple(0, tid, tuple(i));
+		}
+		assertTrue(hf.getNumPages() == 1);
+		bp.transactionComplete(0, false);
+
+		// the page has room again, so no page is added
+		Tuple t = tuple(-1);
+		bp.insertTuple(1, tid, t);
+		assertTrue(t.getPid() == 0);
+		assertTrue(hf.getNumPages() == 1);
+		bp.transactionComplete(1, true);
+	}
+
+	@Test
+	public void testBeforeImageOnFirstWrite() throws Exception {
+		HeapPage hp = bp.getPage(0, tid, 0, Permissions.READ_WRITE);
+		bp.insertTuple(0, tid, tuple(1));
+		// later changes by the same transaction keep the first image
+		bp.insertTuple(0, tid, tuple(2));
+		assertTrue(hp.getNumOccupied() == 3);
+		assertTrue(hp.getBeforeImage().getNumOccupied() == 1);
+		bp.transactionComplete(0, true);
+
+		// the next transaction's image is the committed page
+		hp = bp.getPage(1, tid, 0, Permissions.READ_WRITE);
+		bp.insertTuple(1, tid, tuple(3));
+		assertTrue(hp.getBeforeImage().getNumOccupied() == 3);
+		bp.transactionComplete(1, false);
+		assertTrue(bp.getPage(2, tid, 0, Permissions.READ_ONLY).getNumOccupied() == 3);
+	}
+
+	@Test
+	public void testAbortKeepsCommittedEdit() throws Exception {
+		// a tuple is changed in place and committed
+		HeapPage hp = bp.getPage(0, tid, 0, Permissions.READ_WRITE);
+		hp.markDirty(true, 0);
+		hp.iterator().next().setField(0, new IntField(999));
+		bp.transactionComplete(0, true);
+
+		// the next transaction's before-image holds the change, so aborting
+		// does not undo it
+		bp.getPage(1, tid, 0, Permissions.READ_WRITE);
+		bp.insertTuple(1, tid, tuple(7));
+		bp.transactionComplete(1, false);
+		hp = bp.getPage(2, tid, 0, Permissions.READ_ONLY);
+		assertTrue(hp.getNumOccupied() == 1);
+		assertTrue(hp.iterator().next().getField(0).equals(new IntField(999)));
+	}
+
+	private static int[] lookup(Index index, int value) {
+		return index.lookup(new Predicate[] {new Predicate(0, RelationalOperator.EQ, new IntField(value))});
+	}
+
+	@Test
+	public void testIndexFollowsTransactions() throws Exception {
+		Index index = hf.createIndex(0);
+		assertTrue(lookup(index, 530).length == 1);
+
+		// an aborted insert leaves no entry behind
+		bp.insertTuple(0, tid, tuple(7));
+		assertTrue(lookup(index, 7).length == 1);
+		bp.transactionComplete(0, false);
+		assertTrue(lookup(index, 7).length == 0);
+
+		// a delete is seen on the buffer pool's page, before it is written
+		HeapPage hp = bp.getPage(1, tid, 0, Permissions.READ_WRITE);
+		bp.deleteTuple(1, tid, hp.iterator().next());
+		assertTrue(lookup(index, 530).length == 0);
+		// and an aborted one puts the entry back
+		bp.transactionComplete(1, false);
+		assertTrue(lookup(index, 530).length == 1);
+	}
+
 }
@@ -6,6 +6,7 @@ import java.util.NoSuchElementException;
 
 import org.junit.Test;
 
+import hw1.RowLayout;
 import hw1.TupleDesc;
 import hw1.Type;
 
@@ -87,6 +88,19 @@ public class TupleDescTest {
 		assertTrue(td.getSize() == 12);
 	}
 	
+	@Test
+	public void testLayout() {
+		TupleDesc td = new TupleDesc(new Type[]{Type.INT, Type.STRING, Type.INT}, new String[]{"a", "b", "c"});
+		RowLayout layout = td.getLayout();
+		assertTrue(layout.getOffset(0) == 0);
+		assertTrue(layout.getOffset(1) == 4);
+		assertTrue(layout.getOffset(2) == 133);
+		assertTrue(layout.getRowWidth() == 137);
+		assertTrue(layout.getNumSlots() == 29);
+		assertTrue(layout.getHeaderSize() == 4);
+		assertTrue(td.getLayout() == layout);
+	}
+	
 	@Test
 	public void testEquals() {
 		TupleDesc td1 = new TupleDesc(new Type[]{Type.INT}, new String[]{""});